@@ -0,0 +1,95 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.InstanceSpec.Option.*;
+import static net.hulte.jmysqld.LifecycleBenchmark.*;
+import static net.hulte.jmysqld.MySql.mySqlServerFromBinaryDistribution;
+import static net.hulte.jmysqld.Utilities.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how many instances fit in a GB of memory, from the resident set size of a number of
+ * running instances, sampled repeatedly once they've settled. The last sample of each iteration is
+ * printed as {@code instancesPerGb} and {@code rssMb}, the average resident set size of an instance,
+ * since JMH sums auxiliary counters over the iterations. Runs against the stub distribution unless a
+ * {@code mysqlVersion} is given, like {@link LifecycleBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DensityBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Instances {
+
+        /**
+         * The memory budget of each instance in MB, or {@code 0} for the default server settings.
+         */
+        @Param({"0", "64"})
+        long budgetMb;
+
+        @Param("10")
+        int count;
+
+        @Param("2000")
+        long settleMillis;
+
+        final List<Path> dataDirs = list();
+        List<MySqlServerInstance> instances;
+        long lastTotal;
+
+        @Setup
+        public void setUp() {
+            final MySqlServer server = mySqlServerFromBinaryDistribution(distPath());
+            final Map<Path, InstanceSpec> specs = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                final Path dataDir = newDataDir();
+                server.initializeDataDirectory(dataDir);
+                dataDirs.add(dataDir);
+
+                final InstanceSpec spec = new InstanceSpec().option(DIRECT_LAUNCH).option(AUTO_SHUTDOWN);
+                if (budgetMb > 0) {
+                    spec.memoryBudget(budgetMb * 1024 * 1024);
+                }
+                specs.put(dataDir, spec);
+            }
+            instances = server.startAll(specs);
+            sleep(settleMillis);
+        }
+
+        @TearDown(Level.Iteration)
+        public void report() {
+            System.out.println(String.format(Locale.ROOT, "instancesPerGb: %.3f, rssMb: %.3f",
+                instances.size() * 1024.0 * 1024 * 1024 / lastTotal, lastTotal / 1024.0 / 1024 / instances.size()));
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            for (MySqlServerInstance i : instances) {
+                i.shutdown();
+            }
+            for (Path d : dataDirs) {
+                deleteRecursively(d);
+            }
+        }
+    }
+
+
+    @Benchmark
+    public long residentSetSize(Instances s) {
+        long total = 0;
+        for (MySqlServerInstance i : s.instances) {
+            total += i.getResidentSetSize();
+        }
+
+        s.lastTotal = total;
+        return total;
+    }
+}
@@ -0,0 +1,92 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.InstanceSpec.Option.*;
+import static net.hulte.jmysqld.LifecycleBenchmark.*;
+import static net.hulte.jmysqld.MySql.mySqlServerFromBinaryDistribution;
+import static net.hulte.jmysqld.Utilities.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the throughput of single-row, autocommitted inserts into an InnoDB table, comparing an
+ * {@link InstanceSpec.Option#EPHEMERAL} instance to one started with the default server settings.
+ * Startup is compared by {@link LifecycleBenchmark#startToReady}. Requires a {@code mysqlVersion}, since
+ * the stub distribution can't execute statements.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertBenchmark {
+
+    /**
+     * The profile of the instance inserted into.
+     */
+    public enum Profile {
+        DEFAULT, EPHEMERAL
+    }
+
+    @State(Scope.Thread)
+    public static class Table {
+
+        @Param
+        Profile profile;
+
+        Path dataDir;
+        MySqlServerInstance instance;
+        Connection connection;
+        PreparedStatement insert;
+        long id;
+
+        @Setup
+        public void setUp() throws Exception {
+            if (System.getProperty("mysqlVersion", "").isEmpty()) {
+                throw new IllegalStateException("Inserting requires the MySQL binaries, run with -DmysqlVersion.");
+            }
+
+            final MySqlServer server = mySqlServerFromBinaryDistribution(distPath());
+            dataDir = newDataDir();
+            server.initializeDataDirectory(dataDir);
+
+            final InstanceSpec spec = new InstanceSpec().option(AUTO_PORT).option(AUTO_SHUTDOWN);
+            if (profile == Profile.EPHEMERAL) {
+                spec.option(InstanceSpec.Option.EPHEMERAL);
+            }
+            instance = server.start(dataDir, spec);
+            instance.execute("CREATE DATABASE bench; "
+                + "CREATE TABLE bench.t (id bigint PRIMARY KEY, s varchar(64)) ENGINE=InnoDB;");
+
+            Class.forName("com.mysql.jdbc.Driver");
+            connection = DriverManager.getConnection("jdbc:mysql://127.0.0.1:" + instance.getPort() + "/bench",
+                "root", "");
+            insert = connection.prepareStatement("INSERT INTO t VALUES (?, ?)");
+        }
+
+        @TearDown
+        public void tearDown() throws SQLException, IOException {
+            if (connection != null) {
+                connection.close();
+            }
+            if (instance != null) {
+                instance.shutdown();
+            }
+            if (dataDir != null) {
+                deleteRecursively(dataDir);
+            }
+        }
+    }
+
+
+    @Benchmark
+    public int insert(Table t) throws SQLException {
+        t.insert.setLong(1, ++t.id);
+        t.insert.setString(2, "row " + t.id);
+        return t.insert.executeUpdate();
+    }
+}
@@ -0,0 +1,178 @@
+package net.hulte.jmysqld;
+
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.InstanceSpec.Option.*;
+import static net.hulte.jmysqld.MySql.mySqlServerFromBinaryDistribution;
+import static net.hulte.jmysqld.Utilities.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the lifecycle of an instance. Runs against the binaries in {@code mysql-bin} if a
+ * {@code mysqlVersion} is given, otherwise against the stub distribution, which makes the results
+ * reflect the overhead of jmysqld and the launched processes rather than that of the server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LifecycleBenchmark {
+
+    /**
+     * How instances are launched, see {@link InstanceSpec.Option}.
+     */
+    public enum Launch {
+        MYSQLD_SAFE, DIRECT_LAUNCH, EPHEMERAL
+    }
+
+    /**
+     * How data directories are installed, see {@link InitializeOption}. Run with a {@code mysqlVersion}
+     * to compare the installers of different versions.
+     */
+    public enum Installation {
+        DEFAULT, SKIP_OPTIONAL_STEPS
+    }
+
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        MySqlServer server;
+        Path preparedDataDir;
+
+        @Setup
+        public void setUp() {
+            server = mySqlServerFromBinaryDistribution(distPath());
+            preparedDataDir = newDataDir();
+            server.initializeDataDirectory(preparedDataDir);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            deleteRecursively(preparedDataDir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EmptyDataDir {
+
+        @Param
+        Installation installation;
+
+        Path dataDir;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            dataDir = newDataDir();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            deleteRecursively(dataDir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class StoppedInstance {
+
+        @Param
+        Launch launch;
+
+        MySqlServerInstance instance;
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            if (instance != null) {
+                instance.shutdown();
+                instance = null;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class RunningInstance {
+
+        MySqlServerInstance instance;
+
+        @Setup(Level.Invocation)
+        public void setUp(Server s) {
+            instance = s.server.start(s.preparedDataDir, new InstanceSpec().option(DIRECT_LAUNCH));
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            instance.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LongRunningInstance {
+
+        MySqlServerInstance instance;
+
+        @Setup
+        public void setUp(Server s) {
+            instance = s.server.start(s.preparedDataDir, new InstanceSpec().option(DIRECT_LAUNCH));
+        }
+
+        @TearDown
+        public void tearDown() {
+            instance.shutdown();
+        }
+    }
+
+
+    @Benchmark
+    public void initializeDataDirectory(Server s, EmptyDataDir d) {
+        if (d.installation == Installation.SKIP_OPTIONAL_STEPS) {
+            s.server.initializeDataDirectory(d.dataDir, InitializeOption.SKIP_OPTIONAL_STEPS);
+        } else {
+            s.server.initializeDataDirectory(d.dataDir);
+        }
+    }
+
+    @Benchmark
+    public MySqlServerInstance startToReady(Server s, StoppedInstance i) {
+        final InstanceSpec spec = new InstanceSpec();
+        if (i.launch != Launch.MYSQLD_SAFE) {
+            spec.option(DIRECT_LAUNCH);
+        }
+        if (i.launch == Launch.EPHEMERAL) {
+            spec.option(EPHEMERAL);
+        }
+
+        i.instance = s.server.start(s.preparedDataDir, spec);
+        return i.instance;
+    }
+
+    @Benchmark
+    public boolean isRunning(LongRunningInstance i) {
+        return i.instance.isRunning();
+    }
+
+    @Benchmark
+    public void shutdown(RunningInstance i) {
+        i.instance.shutdown();
+    }
+
+    @Benchmark
+    public String getVersion(Server s) {
+        return s.server.getVersion();
+    }
+
+
+    static Path distPath() {
+        final String version = System.getProperty("mysqlVersion", "");
+        return version.isEmpty()
+            ? path("src", "bench", "stub-dist")
+            : path("mysql-bin", version);
+    }
+
+    static Path newDataDir() {
+        return path("target", "bench", randomUUID().toString()).toAbsolutePath();
+    }
+}
@@ -0,0 +1,39 @@
+package net.hulte.jmysqld;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures {@link Utilities#readText} on inputs the size of typical process output, up to that of
+ * {@code mysqld --verbose --help}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadTextBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    int size;
+
+    byte[] input;
+
+    @Setup
+    public void setUp() {
+        input = new byte[size];
+        Arrays.fill(input, (byte) 'x');
+        for (int i = 79; i < size; i += 80) {
+            input[i] = '\n';
+        }
+    }
+
+    @Benchmark
+    public String readText() throws IOException {
+        return Utilities.readText(new ByteArrayInputStream(input));
+    }
+}
@@ -1,83 +1,403 @@
 package net.hulte.jmysqld;
 
 import static java.nio.file.Files.exists;
-import static java.util.UUID.randomUUID;
 import static net.hulte.jmysqld.InstanceSpec.Option.*;
+import static net.hulte.jmysqld.DataDirectoryReclaimer.dataDirectoryReclaimer;
 import static net.hulte.jmysqld.MySqlProcess.startMySqlProcess;
+import static net.hulte.jmysqld.ShutdownCoordinator.shutdownCoordinator;
 import static net.hulte.jmysqld.Utilities.*;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.io.*;
+import java.nio.charset.Charset;
 import java.nio.file.*;
-import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.regex.Pattern;
+import java.util.*;
+import java.util.concurrent.*;
 import org.slf4j.Logger;
 
 final class BinaryDistributionMySqlServer implements MySqlServer {
 
-    private static final Pattern versionPattern = Pattern.compile("^.*Ver\\s(.*)\\sfor.*");
+    private static final int probeTimeoutMillis = 1000;
+    private static final int readinessProbeTimeoutMillis = 5;
+    private static final long maxBackoffMillis = 100;
+    private static final long maxSocketPollMillis = 10;
+    static final String optionsFileName = "jmysqld.cnf";
+
+    /**
+     * Probes starting instances until they're ready. Each probe takes a few milliseconds at most, as
+     * handshakes are given up after {@value #readinessProbeTimeoutMillis} ms and retried, and
+     * {@code mysqladmin ping} is awaited on the process reaper, so a single thread serves all
+     * instances.
+     */
+    private static final ScheduledThreadPoolExecutor probes = new ScheduledThreadPoolExecutor(1,
+        namedDaemons("readiness-probe"));
+
+    private static final ExecutorService initializers = Executors.newCachedThreadPool(
+        namedDaemons("mysqld-initializer"));
+
+    static {
+        probes.setKeepAliveTime(1, TimeUnit.SECONDS);
+        probes.allowCoreThreadTimeOut(true);
+    }
 
     private final Logger logger = getLogger(getClass());
     private final Path distPath;
+    private final DataDirectoryTemplates templates;
+    private final List<LifecycleListener> lifecycleListeners = new CopyOnWriteArrayList<>();
+    private final Path metadataDir;
+    private volatile ServerMetadata metadata;
 
     BinaryDistributionMySqlServer(Path distPath) {
+        this(distPath, null);
+    }
+
+    BinaryDistributionMySqlServer(Path distPath, Path cacheDir) {
         this.distPath = distPath.toAbsolutePath();
         if (!exists(mysqld())) {
             throw new IllegalArgumentException("mysqld binary not found at " + mysqld() + ".");
         }
+
+        this.templates = cacheDir == null
+            ? null
+            : new DataDirectoryTemplates(cacheDir.resolve("templates"));
+        this.metadataDir = cacheDir == null
+            ? null
+            : cacheDir.toAbsolutePath().resolve("metadata");
     }
 
     @Override
     public String getVersion() {
-        final String output = startMySqlProcess(newProcessBuilder(mysqld(), "--version"))
-            .waitForSuccessfulCompletion()
-            .readStdOut();
+        return metadata().getVersion();
+    }
 
-        final String version = firstMatchOrNull(versionPattern, output);
+    /**
+     * Returns the metadata of {@code mysqld}. The metadata is read once per server, from the cache
+     * directory if possible, so that {@code mysqld} is only forked the first time a binary is used.
+     *
+     * @throws MySqlProcessException
+     * @throws IllegalStateException if the version string can't be parsed
+     */
+    ServerMetadata metadata() {
+        ServerMetadata result = metadata;
+        if (result == null) {
+            synchronized (this) {
+                if (metadata == null) {
+                    metadata = loadMetadata();
+                }
+                result = metadata;
+            }
+        }
+        return result;
+    }
+
+    private ServerMetadata loadMetadata() {
+        final Path file = metadataDir == null
+            ? null
+            : metadataDir.resolve(sha1(fingerprint(list(mysqld()))) + ".properties");
 
-        if (version == null) {
-            throw new IllegalStateException("Unable to parse version-string, "
-                + output);
+        if (file != null) {
+            final ServerMetadata cached = ServerMetadata.load(file);
+            if (cached != null) {
+                return cached;
+            }
         }
 
-        return version;
+        final long start = System.nanoTime();
+        final ServerMetadata.HelpParser parser = new ServerMetadata.HelpParser();
+        startMySqlProcess(newProcessBuilder(mysqld(),
+                "--no-defaults",
+                "--basedir=" + distPath,
+                "--user=" + userName(),
+                "--verbose",
+                "--help"))
+            .streamStdOut(Charset.defaultCharset(), parser)
+            .waitForSuccessfulCompletion();
+
+        final ServerMetadata result = parser.result();
+        logger.debug("Read metadata of " + mysqld() + " in " + millisSince(start) + " ms, found "
+            + result.getOptions().size() + " options.");
+
+        if (file != null) {
+            try {
+                result.store(file);
+            } catch (IOException e) {
+                logger.warn("Unable to cache metadata in " + file + ".", e);
+            }
+        }
+        return result;
     }
 
     @Override
     public void initializeDataDirectory(Path dataDir) {
+        initializeDataDirectory(dataDir, new InitializeOption[0]);
+    }
+
+    @Override
+    public void initializeDataDirectory(Path dataDir, InitializeOption... options) {
         logger.debug("Initializing data-directory " + dataDir + ".");
+        final long start = System.nanoTime();
+        final Set<InitializeOption> optionSet = EnumSet.noneOf(InitializeOption.class);
+        optionSet.addAll(Arrays.asList(options));
+
+        if (templates == null) {
+            installDataDirectory(dataDir, optionSet);
+        } else {
+            // templates installed with other options are kept in groups of their own
+            templates.initialize(dataDir, distPath + (optionSet.isEmpty() ? "" : " " + optionSet),
+                distributionFingerprint(), templateDir -> installDataDirectory(templateDir, optionSet));
+        }
 
-        startMySqlProcess(newProcessBuilder(mysqlInstallDb(),
-                "--basedir=" + distPath,
-                "--datadir=" + dataDir,
-                "--user=" + userName()))
+        phaseCompleted(dataDir, LifecyclePhase.INITIALIZE, start);
+    }
+
+    @Override
+    public CompletableFuture<Void> initializeDataDirectoryAsync(final Path dataDir) {
+        return CompletableFuture.runAsync(() -> initializeDataDirectory(dataDir), initializers);
+    }
+
+    /**
+     * Installs a data directory using {@code mysqld --initialize-insecure} if supported by the
+     * server version, which bootstraps the server directly instead of going through the Perl or shell
+     * script, otherwise using {@code mysql_install_db}.
+     */
+    private void installDataDirectory(Path dataDir, Set<InitializeOption> options) {
+        final Version v = version();
+        final long start = System.nanoTime();
+
+        final List<String> args;
+        final Path installer;
+        if (v.isAtLeast(5, 7, 6)) {
+            installer = mysqld();
+            args = list("--no-defaults", "--initialize-insecure");
+        } else {
+            installer = mysqlInstallDb();
+            args = list();
+        }
+        args.add("--basedir=" + distPath);
+        args.add("--datadir=" + dataDir);
+        args.add("--user=" + userName());
+        if (options.contains(InitializeOption.SKIP_OPTIONAL_STEPS)) {
+            args.addAll(Profiles.asArguments(Profiles.initializeOptions(v)));
+        }
+
+        startMySqlProcess(newProcessBuilder(installer, args))
             .logStdOut()
             .waitForSuccessfulCompletion();
+
+        logger.debug("Installed " + dataDir + " using " + installer.getFileName() + " of MySQL " + v
+            + " in " + millisSince(start) + " ms.");
+    }
+
+    @Override
+    public void snapshot(Path dataDir, Path snapshot) {
+        snapshot(dataDir, snapshot, false);
+    }
+
+    @Override
+    public void snapshot(Path dataDir, Path snapshot, boolean compress) {
+        final long start = System.nanoTime();
+        try {
+            DataDirectorySnapshots.snapshot(dataDir, snapshot, compress);
+        } catch (IOException e) {
+            throw new MySqlProcessException("Unable to snapshot " + dataDir + " to " + snapshot + ".", e);
+        }
+        logger.debug("Snapshot " + dataDir + " to " + snapshot + " in " + millisSince(start) + " ms.");
+    }
+
+    @Override
+    public void restore(Path snapshot, Path dataDir) {
+        final long start = System.nanoTime();
+        try {
+            DataDirectorySnapshots.restore(snapshot, dataDir);
+        } catch (IOException e) {
+            throw new MySqlProcessException("Unable to restore " + snapshot + " to " + dataDir + ".", e);
+        }
+        logger.debug("Restored " + snapshot + " to " + dataDir + " in " + millisSince(start) + " ms.");
     }
 
     @Override
     public MySqlServerInstance start(Path dataDir, InstanceSpec spec) {
+        return await(startAsync(dataDir, spec));
+    }
+
+    @Override
+    public CompletableFuture<MySqlServerInstance> startAsync(final Path dataDir, final InstanceSpec spec) {
+        if (spec.isSet(SHARED)) {
+            return CompletableFuture.supplyAsync(() -> attach(dataDir, spec), initializers);
+        }
+
+        try {
+            return spawn(dataDir, spec);
+        } catch (RuntimeException e) {
+            final CompletableFuture<MySqlServerInstance> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+    }
+
+    private CompletableFuture<MySqlServerInstance> spawn(final Path dataDir, InstanceSpec spec) {
         logger.debug("Starting MySQL in " + dataDir + ".");
 
+        final long start = System.nanoTime();
         final Path errorLog = dataDir.resolve("error.log");
-        final Path socket = newSocket();
+        final Path optionsFile = writeOptionsFile(dataDir, spec);
+        final Path ephemeralDir = spec.isSet(EPHEMERAL) ? ephemeralCopyOf(dataDir, spec.getRamDisk()) : null;
+        final Path socket = ResourceRegistry.reserveSocket();
+        final Path launcher = spec.isSet(DIRECT_LAUNCH) ? mysqld() : mysqldSafe();
+        final boolean autoPort = spec.getPort() == null && spec.isSet(AUTO_PORT);
+        final Integer port = autoPort ? Integer.valueOf(ResourceRegistry.reservePort()) : spec.getPort();
 
-        final List<String> args = startArguments(dataDir, socket, errorLog, spec);
-        final ProcessBuilder pb = newProcessBuilder(mysqldSafe(), args);
+        final List<String> args = startArguments(ephemeralDir == null ? dataDir : ephemeralDir,
+            socket, errorLog, port, optionsFile, spec);
+        final ProcessBuilder pb = newProcessBuilder(launcher, args);
 
         pb.directory(distPath.toFile());
         pb.redirectErrorStream(true);
+        if (spec.isSet(SHARED)) {
+            // the launcher outlives the JVM, and mustn't write to a pipe that's closed when it exits
+            pb.redirectOutput(ProcessBuilder.Redirect.appendTo(errorLog.toFile()));
+        }
+
+        final ErrorLog log = new ErrorLog(errorLog, dataDir, spec.getErrorLogListener());
+        final MySqlProcess p;
+        try {
+            final InputStream logStream = log.openAtEnd();
+            try {
+                p = startMySqlProcess(pb)
+                    .logStdOut()
+                    .follow(logStream, Charset.defaultCharset(), log);
+            } catch (RuntimeException e) {
+                logStream.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            release(socket, autoPort ? port : null, ephemeralDir);
+            throw new MySqlProcessException("Unable to open error-log " + errorLog + ".", e);
+        } catch (RuntimeException e) {
+            release(socket, autoPort ? port : null, ephemeralDir);
+            throw e;
+        }
+
+        phaseCompleted(dataDir, LifecyclePhase.PROCESS_SPAWN, start);
 
-        final MySqlProcess p = startMySqlProcess(pb)
-            .logStdOut();
+        final BinaryDistributionMySqlServerInstance instance = new BinaryDistributionMySqlServerInstance(p, log,
+            dataDir, socket, port, autoPort, ephemeralDir, spec.isSet(AUTO_SHUTDOWN) && !spec.isSet(SHARED),
+            spec.isSet(DISPOSABLE));
 
-        return new BinaryDistributionMySqlServerInstance(p, dataDir, socket, spec.isSet(AUTO_SHUTDOWN));
+        return handedOff(instance.awaitStartup().thenApply(i -> {
+            logger.debug("Started MySQL in " + dataDir + " using " + launcher.getFileName() + " in "
+                + millisSince(start) + " ms.");
+            return i;
+        }));
     }
 
-    private List<String> startArguments(Path dataDir, Path socket, Path errorLog, InstanceSpec spec) {
-        final String defaultsOption = spec.getDefaultsFile() == null
-                ? "--no-defaults"
-                : "--defaults-file=" + spec.getDefaultsFile();
+    /**
+     * Attaches to the shared instance in a data directory, starting it if it isn't running.
+     */
+    private MySqlServerInstance attach(final Path dataDir, final InstanceSpec spec) {
+        if (spec.isSet(EPHEMERAL) || spec.isSet(DISPOSABLE)) {
+            throw new IllegalArgumentException("Shared instances can't be ephemeral or disposable.");
+        }
+
+        final long start = System.nanoTime();
+        final SharedInstances.State s = SharedInstances.attach(dataDir.toAbsolutePath(),
+            sharedFingerprint(spec), spec.getSharedIdleTimeout(), () -> {
+                final BinaryDistributionMySqlServerInstance i =
+                    (BinaryDistributionMySqlServerInstance) await(spawn(dataDir, spec));
+                final SharedInstances.State started = new SharedInstances.State(i.socket, i.port,
+                    i.pidFile().toAbsolutePath());
+                started.portReserved = spec.getPort() == null && spec.isSet(AUTO_PORT);
+                return started;
+            });
+
+        logger.debug("Attached to the shared instance in " + dataDir + " in " + millisSince(start) + " ms.");
+        return new SharedInstance(dataDir, s.socket, s.port, s.pidFile);
+    }
+
+    /**
+     * Describes the distribution and the specification of a shared instance, which must match for a
+     * JVM to attach to it.
+     */
+    private String sharedFingerprint(InstanceSpec spec) {
+        final Set<InstanceSpec.Option> options = EnumSet.noneOf(InstanceSpec.Option.class);
+        for (InstanceSpec.Option o : InstanceSpec.Option.values()) {
+            if (spec.isSet(o) && o != AUTO_SHUTDOWN) {
+                options.add(o);
+            }
+        }
+        return sha1(distPath + ";" + options + ";" + spec.getPort() + ";" + spec.getDefaultsFile() + ";"
+            + spec.getMemoryBudget() + ";" + spec.getServerOptions());
+    }
+
+    @Override
+    public List<MySqlServerInstance> startAll(Map<Path, InstanceSpec> instances) {
+        final List<CompletableFuture<MySqlServerInstance>> starts = list();
+        for (Map.Entry<Path, InstanceSpec> i : instances.entrySet()) {
+            starts.add(startAsync(i.getKey(), i.getValue()));
+        }
+
+        // failed by the first instance failing to start, rather than once all of them have completed
+        final CompletableFuture<Void> all = CompletableFuture.allOf(starts.toArray(new CompletableFuture<?>[0]));
+        for (CompletableFuture<MySqlServerInstance> s : starts) {
+            s.whenComplete((i, e) -> {
+                if (e != null) {
+                    all.completeExceptionally(e);
+                }
+            });
+        }
+
+        try {
+            await(all);
+        } catch (RuntimeException e) {
+            shutdownWhenStarted(starts);
+            throw e;
+        }
+
+        final List<MySqlServerInstance> result = list();
+        for (CompletableFuture<MySqlServerInstance> s : starts) {
+            result.add(s.join());
+        }
+        return result;
+    }
+
+    /**
+     * Shuts down the instances already started, and those still starting in the background once
+     * they've started.
+     */
+    private void shutdownWhenStarted(List<CompletableFuture<MySqlServerInstance>> starts) {
+        final List<CompletableFuture<Void>> shutdowns = list();
+        for (CompletableFuture<MySqlServerInstance> s : starts) {
+            if (!s.isDone()) {
+                s.thenAccept(this::shutdownQuietly);
+            } else if (!s.isCompletedExceptionally()) {
+                final MySqlServerInstance i = s.join();
+                shutdowns.add(i.shutdownAsync().exceptionally(e -> {
+                    logger.warn("Unable to shut down " + i + ".", e);
+                    return null;
+                }));
+            }
+        }
+        await(CompletableFuture.allOf(shutdowns.toArray(new CompletableFuture<?>[0])));
+    }
+
+    private void shutdownQuietly(MySqlServerInstance i) {
+        try {
+            i.shutdown();
+        } catch (RuntimeException e) {
+            logger.warn("Unable to shut down " + i + ".", e);
+        }
+    }
+
+    private List<String> startArguments(Path dataDir, Path socket, Path errorLog, Integer port,
+            Path optionsFile, InstanceSpec spec) {
+        final String defaultsOption;
+        if (optionsFile != null) {
+            defaultsOption = "--defaults-file=" + optionsFile;
+        } else if (spec.getDefaultsFile() != null) {
+            defaultsOption = "--defaults-file=" + spec.getDefaultsFile();
+        } else {
+            defaultsOption = "--no-defaults";
+        }
 
         final List<String> result = list(
                 defaultsOption,
@@ -87,8 +407,8 @@ final class BinaryDistributionMySqlServer implements MySqlServer {
                 "--pid-file=mysql.pid",
                 "--log-error=" + errorLog);
 
-        if (spec.getPort() != null) {
-            result.add("--port=" + spec.getPort());
+        if (port != null) {
+            result.add("--port=" + port);
         } else if (spec.getDefaultsFile() == null) {
             result.add("--skip-networking");
         }
@@ -96,81 +416,487 @@ final class BinaryDistributionMySqlServer implements MySqlServer {
         return result;
     }
 
-    private class BinaryDistributionMySqlServerInstance implements MySqlServerInstance {
+    /**
+     * Writes the server options of an instance, including those of its profile, to an option file
+     * in the data directory. The file includes the {@code defaultsFile} of the instance, if any.
+     *
+     * @return the generated file, or {@code null} if the instance has no server options
+     */
+    private Path writeOptionsFile(Path dataDir, InstanceSpec spec) {
+        final Map<String, String> options = new LinkedHashMap<>();
+        if (spec.isSet(EPHEMERAL)) {
+            options.putAll(Profiles.ephemeralOptions(version()));
+        }
+        if (spec.getMemoryBudget() != null) {
+            options.putAll(Profiles.memoryOptions(version(), spec.getMemoryBudget()));
+        }
+        options.putAll(spec.getServerOptions());
+
+        if (options.isEmpty()) {
+            return null;
+        }
 
-        final Path socket;
-        final CountDownLatch processExited = new CountDownLatch(1);
+        OptionsFile.validate(options, version());
+        metadata().requireSupported(options.keySet());
 
-        BinaryDistributionMySqlServerInstance(final MySqlProcess p, final Path dataDir, Path socket,
-                boolean autoShutdown) {
+        final Path result = dataDir.resolve(optionsFileName).toAbsolutePath();
+        try {
+            OptionsFile.write(result, spec.getDefaultsFile(), options);
+        } catch (IOException e) {
+            throw new MySqlProcessException("Unable to write option file " + result + ".", e);
+        }
+        return result;
+    }
 
+    /**
+     * Copies a data directory to a new directory below {@code ramDisk}, leaving out the files
+     * belonging to a specific server run.
+     */
+    private Path ephemeralCopyOf(Path dataDir, Path ramDisk) {
+        final Path result = ramDisk.resolve("jmysqld-" + UUID.randomUUID());
+        try {
+            DataDirectories.cloneDataDirectory(dataDir, result,
+                new HashSet<>(Arrays.asList("auto.cnf", "error.log", "mysql.pid", optionsFileName)));
+        } catch (IOException e) {
+            deleteQuietly(result);
+            throw new MySqlProcessException("Unable to copy " + dataDir + " to " + ramDisk + ".", e);
+        }
+        return result;
+    }
+
+    private Version version() {
+        return Version.parse(getVersion());
+    }
+
+    private class BinaryDistributionMySqlServerInstance implements MySqlServerInstance,
+            ShutdownCoordinator.Participant {
+
+        final MySqlProcess p;
+        final ErrorLog log;
+        final Path dataDir;
+        final Path runDir;
+        final Path socket;
+        final Integer port;
+        final CompletableFuture<Void> exited = new CompletableFuture<>();
+        final CompletableFuture<MySqlServerInstance> ready = new CompletableFuture<>();
+        final long spawned = System.nanoTime();
+        final boolean disposable;
+        volatile long shutdownRequested;
+        volatile boolean disposed;
+        volatile String disposedPid;
+        Checkpoint checkpoint;
+        long connected;
+        long backoff = 1;
+
+        BinaryDistributionMySqlServerInstance(final MySqlProcess p, ErrorLog log, final Path dataDir,
+                final Path socket, final Integer port, final boolean autoPort, final Path ephemeralDir,
+                boolean autoShutdown, boolean disposable) {
+
+            this.p = p;
+            this.log = log;
+            this.dataDir = dataDir;
+            this.runDir = ephemeralDir == null ? dataDir : ephemeralDir;
             this.socket = socket;
+            this.port = port;
+            this.disposable = disposable;
 
-            startNamedDaemon("mysqld-monitor-" + dataDir, new Runnable() {
+            p.onExit(new Runnable() {
                 @Override public void run() {
                     try {
-                        p.waitForCompletion();
-                    } finally {
                         logger.trace("Instance in " + dataDir + " shut down.");
-                        processExited.countDown();
+                        phaseCompleted(dataDir, LifecyclePhase.PROCESS_EXITED,
+                            shutdownRequested != 0 ? shutdownRequested : spawned);
+                        if (disposed) {
+                            // the launcher has exited, but a server launched by mysqld_safe may not have
+                            final Runnable released = () -> release(socket, autoPort ? port : null, null);
+                            if (ephemeralDir != null) {
+                                dataDirectoryReclaimer().reclaimAfterExit(disposedPid, released,
+                                    ephemeralDir, dataDir);
+                            } else {
+                                dataDirectoryReclaimer().reclaimAfterExit(disposedPid, released, dataDir);
+                            }
+                        } else {
+                            release(socket, autoPort ? port : null, ephemeralDir);
+                        }
+                    } finally {
+                        exited.complete(null);
+                    }
+
+                    if (!ready.isDone()) {
+                        probes.execute(BinaryDistributionMySqlServerInstance.this::probeOnce);
                     }
                 }
             });
 
             if (autoShutdown) {
-                addShutdownHook(new Runnable() {
-                    @Override public void run() {
-                        if (isRunning()) {
-                            logger.trace("Automatically shutting down instance in " + dataDir + ".");
-                            shutdown();
-                        }
-                    }
-                });
+                shutdownCoordinator().register(this);
             }
-
-            awaitStartup();
         }
 
+        /**
+         * Probes the port of the instance if known, otherwise the instance is considered to be running
+         * as long as its socket file exists, since it's removed by the server when shutting down.
+         */
         @Override
         public boolean isRunning() {
-            return startMySqlProcess(newProcessBuilder(mysqladmin(),
-                    "--socket=" + socket,
-                    "ping"))
-                .waitForCompletion()
-                .exitCode() == 0;
+            if (disposed || hasExited()) {
+                return false;
+            }
+
+            return port != null
+                ? HandshakeProbe.isListening(port, probeTimeoutMillis)
+                : exists(socket);
         }
 
         @Override
         public void shutdown() {
+            await(shutdownAsync());
+        }
+
+        @Override
+        public CompletableFuture<Void> shutdownAsync() {
             if (!isRunning()) {
-                return;
+                return CompletableFuture.completedFuture(null);
+            }
+            if (disposable) {
+                dispose();
+                return CompletableFuture.completedFuture(null);
+            }
+            return handedOff(requestShutdown());
+        }
+
+        @Override
+        public CompletableFuture<Void> requestShutdown() {
+            if (disposable) {
+                dispose();
+                return exited;
             }
 
-            startMySqlProcess(newProcessBuilder(mysqladmin(),
+            final long start = System.nanoTime();
+            shutdownRequested = start;
+            return startMySqlProcess(newProcessBuilder(mysqladmin(),
                     "--socket=" + socket,
                     "--user=root",
                     "shutdown"))
-                .waitForSuccessfulCompletion();
+                .successfulCompletion()
+                .thenCompose(admin -> {
+                    phaseCompleted(dataDir, LifecyclePhase.SHUTDOWN_REQUESTED, start);
+                    return exited;
+                });
+        }
+
+        /**
+         * Kills the server, and its launcher first so that {@code mysqld_safe} doesn't restart it. The
+         * socket and port are released, and the data directory reclaimed, once the server process has
+         * exited, not just the launcher.
+         */
+        private void dispose() {
+            shutdownRequested = System.nanoTime();
+            disposedPid = pidOf(pidFile());
+            disposed = true;
+            p.destroyForcibly();
+            if (disposedPid != null) {
+                ShutdownCoordinator.signal(pidFile(), "KILL");
+            }
+        }
+
+        @Override
+        public CompletableFuture<Void> exited() {
+            return exited;
+        }
+
+        @Override
+        public Path pidFile() {
+            return runDir.resolve("mysql.pid");
+        }
+
+        @Override
+        public void destroyLauncher() {
+            p.destroyForcibly();
+        }
+
+        @Override
+        public synchronized void checkpoint() {
+            checkpoint = Checkpoint.take(new MySqlClient(mysql(), socket));
+        }
+
+        @Override
+        public synchronized void resetToCheckpoint() {
+            if (checkpoint == null) {
+                throw new IllegalStateException("No checkpoint recorded for " + this + ".");
+            }
+            checkpoint.reset();
+        }
+
+        @Override
+        public LoadStatistics load(LoadSpec spec) {
+            return new FixtureLoader(mysql(), socket).load(spec);
+        }
+
+        @Override
+        public List<String[]> execute(String sql) {
+            return new MySqlClient(mysql(), socket).execute(sql);
+        }
+
+        @Override
+        public long getResidentSetSize() {
+            return ProcessMemory.residentSetSize(pidFile());
+        }
+
+        @Override
+        public Path getDataDir() {
+            return dataDir;
+        }
+
+        @Override
+        public Path getSocket() {
+            return socket;
+        }
 
-            await(processExited);
+        @Override
+        public Integer getPort() {
+            return port;
         }
 
-        void awaitStartup() {
-            while (!isRunning()) {
-                if (processExited.getCount() == 0) {
-                    throw new MySqlProcessException(
-                        "Failed to start instance, see the error-log for details.");
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "@" + dataDir;
+        }
+
+        /**
+         * Starts probing the instance, returning a future that is completed once the instance is ready,
+         * or fails if the instance fails to start, in which case the process is destroyed.
+         */
+        CompletableFuture<MySqlServerInstance> awaitStartup() {
+            ready.whenComplete((i, e) -> {
+                if (e != null) {
+                    p.destroy();
                 }
-                sleep(100);
+            });
+            probes.execute(this::probeOnce);
+            return ready;
+        }
+
+        /**
+         * Probes the instance once, rescheduling the probe with an exponential backoff until the
+         * instance is ready. The server creates its socket file as it starts listening for
+         * connections, after which it's probed directly if the port is known, otherwise using
+         * {@code mysqladmin ping}, which completes the probe on the process reaper. The socket file is
+         * polled at least every {@value #maxSocketPollMillis} ms rather than watched, which would take
+         * a {@code WatchService} thread per instance.
+         */
+        private synchronized void probeOnce() {
+            if (ready.isDone()) {
+                return;
+            }
+
+            try {
+                failIfExited();
+
+                if (connected == 0) {
+                    if (!exists(socket)) {
+                        reschedule(maxSocketPollMillis);
+                        return;
+                    }
+                    phaseCompleted(dataDir, LifecyclePhase.FIRST_CONNECT, spawned);
+                    connected = System.nanoTime();
+                    backoff = 1;
+                }
+
+                if (port != null) {
+                    if (HandshakeProbe.isListening(port, readinessProbeTimeoutMillis)) {
+                        becameReady();
+                    } else {
+                        reschedule(maxBackoffMillis);
+                    }
+                    return;
+                }
+
+                final MySqlProcess ping = startMySqlProcess(newProcessBuilder(mysqladmin(),
+                        "--socket=" + socket,
+                        "ping"));
+                ping.onExit(() -> {
+                    if (ping.exitCode() == 0) {
+                        becameReady();
+                    } else {
+                        reschedule(maxBackoffMillis);
+                    }
+                });
+            } catch (RuntimeException e) {
+                ready.completeExceptionally(e);
+            }
+        }
+
+        private synchronized void becameReady() {
+            phaseCompleted(dataDir, LifecyclePhase.READY, connected);
+            ready.complete(this);
+        }
+
+        private synchronized void reschedule(long maxMillis) {
+            probes.schedule(this::probeOnce, backoff, TimeUnit.MILLISECONDS);
+            backoff = Math.min(backoff * 2, maxMillis);
+        }
+
+        private boolean hasExited() {
+            return exited.isDone();
+        }
+
+        /**
+         * Fails as soon as the error-log reports a fatal error, instead of waiting for the server to
+         * give up and exit.
+         */
+        private void failIfExited() {
+            final ErrorLogEvent fatal = log.fatalEvent();
+            if (fatal != null) {
+                throw new MySqlProcessException("Failed to start instance: " + fatal.getMessage()
+                    + "\nLast lines of the error-log:\n" + log.recentLines());
+            }
+            if (hasExited()) {
+                throw new MySqlProcessException("Failed to start instance, see the error-log for details."
+                    + "\nLast lines of the error-log:\n" + log.recentLines());
             }
         }
     }
 
+    /**
+     * An attachment to a {@link InstanceSpec.Option#SHARED} instance. Shutting it down detaches from
+     * the instance, which is shut down by its watchdog once idle.
+     */
+    private class SharedInstance implements MySqlServerInstance {
+
+        final Path dataDir;
+        final Path socket;
+        final Integer port;
+        final Path pidFile;
+        Checkpoint checkpoint;
+        volatile boolean detached;
+
+        SharedInstance(Path dataDir, Path socket, Integer port, Path pidFile) {
+            this.dataDir = dataDir;
+            this.socket = socket;
+            this.port = port;
+            this.pidFile = pidFile;
+        }
+
+        @Override
+        public boolean isRunning() {
+            if (detached) {
+                return false;
+            }
+
+            return port != null
+                ? HandshakeProbe.isListening(port, probeTimeoutMillis)
+                : exists(socket);
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            if (!detached) {
+                detached = true;
+                SharedInstances.detach(dataDir.toAbsolutePath());
+            }
+        }
+
+        @Override
+        public CompletableFuture<Void> shutdownAsync() {
+            shutdown();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public synchronized void checkpoint() {
+            checkpoint = Checkpoint.take(new MySqlClient(mysql(), socket));
+        }
+
+        @Override
+        public synchronized void resetToCheckpoint() {
+            if (checkpoint == null) {
+                throw new IllegalStateException("No checkpoint recorded for " + this + ".");
+            }
+            checkpoint.reset();
+        }
+
+        @Override
+        public LoadStatistics load(LoadSpec spec) {
+            return new FixtureLoader(mysql(), socket).load(spec);
+        }
+
+        @Override
+        public List<String[]> execute(String sql) {
+            return new MySqlClient(mysql(), socket).execute(sql);
+        }
+
+        @Override
+        public long getResidentSetSize() {
+            return ProcessMemory.residentSetSize(pidFile);
+        }
+
+        @Override
+        public Path getDataDir() {
+            return dataDir;
+        }
+
+        @Override
+        public Path getSocket() {
+            return socket;
+        }
+
+        @Override
+        public Integer getPort() {
+            return port;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "@" + dataDir;
+        }
+    }
+
+    @Override
+    public void addLifecycleListener(LifecycleListener listener) {
+        lifecycleListeners.add(listener);
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "@" + distPath;
     }
 
+    /**
+     * Reports a completed phase to the lifecycle listeners, if any.
+     */
+    private void phaseCompleted(Path dataDir, LifecyclePhase phase, long startNanos) {
+        if (lifecycleListeners.isEmpty()) {
+            return;
+        }
+
+        final long elapsed = System.nanoTime() - startNanos;
+        for (LifecycleListener l : lifecycleListeners) {
+            try {
+                l.onPhase(dataDir, phase, elapsed);
+            } catch (RuntimeException e) {
+                logger.warn("Lifecycle listener failed.", e);
+            }
+        }
+    }
+
+    /**
+     * Describes the files that affect the outcome of {@code mysql_install_db}, which changes whenever
+     * the distribution is replaced.
+     */
+    private String distributionFingerprint() {
+        return fingerprint(list(mysqld(), mysqlInstallDb(), distPath.resolve("share")));
+    }
+
+    private static String fingerprint(List<Path> files) {
+        final StringBuilder result = new StringBuilder();
+        for (Path p : files) {
+            final File f = p.toFile();
+            result.append(p).append(':').append(f.length()).append(':').append(f.lastModified()).append(';');
+        }
+        return result.toString();
+    }
+
     private Path mysqld() {
         return distPath.resolve("bin").resolve("mysqld");
     }
@@ -183,12 +909,33 @@ final class BinaryDistributionMySqlServer implements MySqlServer {
         return distPath.resolve("scripts").resolve("mysql_install_db");
     }
 
+    private Path mysql() {
+        return distPath.resolve("bin").resolve("mysql");
+    }
+
     private Path mysqladmin() {
         return distPath.resolve("bin").resolve("mysqladmin");
     }
 
-    private static Path newSocket() {
-        return tmpDir().resolve(randomUUID().toString());
+    private void release(Path socket, Integer reservedPort, Path ephemeralDir) {
+        ResourceRegistry.releaseSocket(socket);
+        if (reservedPort != null) {
+            ResourceRegistry.releasePort(reservedPort);
+        }
+        if (ephemeralDir != null) {
+            deleteQuietly(ephemeralDir);
+        }
+    }
+
+    /**
+     * Returns the pid held by a pid-file, or {@code null} if the server hasn't written it yet.
+     */
+    private static String pidOf(Path pidFile) {
+        try {
+            return readPid(pidFile);
+        } catch (IOException e) {
+            return null;
+        }
     }
 }
 
@@ -0,0 +1,272 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.MySqlClient.*;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.*;
+import org.slf4j.Logger;
+
+/**
+ * A recorded state of the user databases of a running instance, which the instance can be reset to
+ * without being restarted.
+ *
+ * <p>The data of each table is copied to a separate checkpoint database. Resetting the instance
+ * drops any databases and tables created since the checkpoint, and restores the tables that have
+ * been dropped or changed. Changed tables are detected using the create- and update-times reported
+ * by {@code information_schema}. Tables whose update-time isn't reliable, i.e. it's unavailable
+ * (older versions of InnoDB), or too close to the time of the checkpoint to tell any changes
+ * apart, are compared using {@code CHECKSUM TABLE}. The checkpoint state is queried along with the
+ * current state, so resetting an unchanged instance requires a single round-trip.</p>
+ */
+final class Checkpoint {
+
+    static final String checkpointDatabase = "jmysqld_checkpoint";
+
+    private static final String excludedSchemas = "('mysql', 'information_schema', 'performance_schema', "
+        + "'sys', " + quote(checkpointDatabase) + ")";
+
+    private final Logger logger = getLogger(getClass());
+    private final MySqlClient client;
+    private final Map<String, Database> databases;
+    private final Map<String, Table> tables;
+    private String time;
+
+
+    /**
+     * Records the current state of the user databases of an instance.
+     *
+     * @throws MySqlProcessException
+     */
+    static Checkpoint take(MySqlClient client) {
+        final long start = System.nanoTime();
+        final State state = State.query(client, Collections.<Table>emptyList());
+
+        final StringBuilder sql = new StringBuilder()
+            .append("DROP DATABASE IF EXISTS ").append(quoteName(checkpointDatabase)).append(";\n")
+            .append("CREATE DATABASE ").append(quoteName(checkpointDatabase)).append(";\n");
+
+        int n = 0;
+        for (Table t : state.tables.values()) {
+            t.backup = "t" + n++;
+            sql.append("CREATE TABLE ").append(quoteName(checkpointDatabase, t.backup))
+                .append(" LIKE ").append(t.quotedName()).append(";\n")
+                .append("INSERT INTO ").append(quoteName(checkpointDatabase, t.backup))
+                .append(" SELECT * FROM ").append(t.quotedName()).append(";\n");
+        }
+        for (Table t : state.tables.values()) {
+            sql.append("SHOW CREATE TABLE ").append(t.quotedName()).append(";\n");
+        }
+        if (!state.tables.isEmpty()) {
+            sql.append(checksumStatement(state.tables.values()));
+        }
+
+        final Iterator<String[]> rows = client.execute(sql.toString()).iterator();
+        for (Table t : state.tables.values()) {
+            t.ddl = rows.next()[1];
+        }
+        for (Table t : state.tables.values()) {
+            t.checksum = rows.next()[1];
+        }
+
+        final Checkpoint result = new Checkpoint(client, state);
+        result.logger.debug("Checkpoint of " + state.tables.size() + " tables taken in "
+            + millisSince(start) + " ms.");
+        return result;
+    }
+
+    private Checkpoint(MySqlClient client, State state) {
+        this.client = client;
+        this.databases = state.databases;
+        this.tables = state.tables;
+        this.time = state.time;
+    }
+
+
+    /**
+     * Resets the user databases to the state of the checkpoint.
+     *
+     * @throws MySqlProcessException
+     */
+    void reset() {
+        final long start = System.nanoTime();
+        final State current = State.query(client, unreliableTables());
+        final StringBuilder sql = new StringBuilder("SET foreign_key_checks = 0;\n");
+        int restored = 0;
+
+        for (String db : current.databases.keySet()) {
+            if (!databases.containsKey(db)) {
+                sql.append("DROP DATABASE ").append(quoteName(db)).append(";\n");
+            }
+        }
+        for (Database db : databases.values()) {
+            if (!current.databases.containsKey(db.name)) {
+                sql.append("CREATE DATABASE ").append(quoteName(db.name))
+                    .append(" CHARACTER SET ").append(db.charset)
+                    .append(" COLLATE ").append(db.collation).append(";\n");
+            }
+        }
+        for (Table t : current.tables.values()) {
+            if (!tables.containsKey(t.key()) && databases.containsKey(t.schema)) {
+                sql.append("DROP TABLE ").append(t.quotedName()).append(";\n");
+            }
+        }
+        for (Table t : tables.values()) {
+            if (isChanged(t, current)) {
+                restored++;
+                sql.append("DROP TABLE IF EXISTS ").append(t.quotedName()).append(";\n")
+                    .append("USE ").append(quoteName(t.schema)).append(";\n")
+                    .append(t.ddl).append(";\n")
+                    .append("INSERT INTO ").append(t.quotedName())
+                    .append(" SELECT * FROM ").append(quoteName(checkpointDatabase, t.backup)).append(";\n");
+            }
+        }
+
+        if (current.databases.keySet().equals(databases.keySet())
+                && current.tables.keySet().equals(tables.keySet()) && restored == 0) {
+            logger.debug("Nothing changed since the checkpoint, checked in " + millisSince(start) + " ms.");
+            return;
+        }
+
+        sql.append("SET foreign_key_checks = 1;\n");
+        client.execute(sql.toString());
+        refreshTimes();
+
+        logger.debug("Reset to checkpoint, restoring " + restored + " tables, in "
+            + millisSince(start) + " ms.");
+    }
+
+    private boolean isChanged(Table t, State current) {
+        final Table c = current.tables.get(t.key());
+        if (c == null || !c.createTime.equals(t.createTime)) {
+            return true;
+        }
+        if (!isReliable(t)) {
+            return !t.checksum.equals(current.checksums.get(t.key()));
+        }
+        return !c.updateTime.equals(t.updateTime);
+    }
+
+    private boolean isReliable(Table t) {
+        return !"NULL".equals(t.updateTime) && t.updateTime.compareTo(time) < 0;
+    }
+
+    private List<Table> unreliableTables() {
+        final List<Table> result = list();
+        for (Table t : tables.values()) {
+            if (!isReliable(t)) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private void refreshTimes() {
+        final State current = State.query(client, Collections.<Table>emptyList());
+        for (Table t : tables.values()) {
+            final Table c = current.tables.get(t.key());
+            t.createTime = c.createTime;
+            t.updateTime = c.updateTime;
+        }
+        time = current.time;
+    }
+
+    private static String checksumStatement(Collection<Table> tables) {
+        final StringBuilder result = new StringBuilder("CHECKSUM TABLE ");
+        String separator = "";
+        for (Table t : tables) {
+            result.append(separator).append(t.quotedName());
+            separator = ", ";
+        }
+        return result.append(";\n").toString();
+    }
+
+
+    /**
+     * The databases and tables of an instance at some point in time, along with the checksums of
+     * selected tables.
+     */
+    private static final class State {
+        final Map<String, Database> databases = new LinkedHashMap<>();
+        final Map<String, Table> tables = new LinkedHashMap<>();
+        final Map<String, String> checksums = new HashMap<>();
+        String time;
+
+        static State query(MySqlClient client, List<Table> checksummed) {
+            final StringBuilder sql = new StringBuilder()
+                .append("SET @jmysqld_checkpoint = 1 /*!80000 , SESSION information_schema_stats_expiry = 0 */;\n")
+                .append("SELECT 'D', schema_name, default_character_set_name, default_collation_name ")
+                .append("FROM information_schema.schemata WHERE schema_name NOT IN ")
+                .append(excludedSchemas).append(";\n")
+                .append("SELECT 'T', table_schema, table_name, create_time, update_time ")
+                .append("FROM information_schema.tables WHERE table_type = 'BASE TABLE' AND table_schema NOT IN ")
+                .append(excludedSchemas).append(";\n")
+                .append("SELECT 'N', NOW();\n");
+
+            if (!checksummed.isEmpty()) {
+                sql.append(checksumStatement(checksummed));
+            }
+
+            final State result = new State();
+            final Iterator<String[]> rows = client.execute(sql.toString()).iterator();
+
+            while (result.time == null) {
+                final String[] row = rows.next();
+                switch (row[0]) {
+                    case "D":
+                        result.databases.put(row[1], new Database(row[1], row[2], row[3]));
+                        break;
+                    case "T":
+                        final Table t = new Table(row[1], row[2], row[3], row[4]);
+                        result.tables.put(t.key(), t);
+                        break;
+                    default:
+                        result.time = row[1];
+                }
+            }
+
+            for (Table t : checksummed) {
+                result.checksums.put(t.key(), rows.next()[1]);
+            }
+
+            return result;
+        }
+    }
+
+    private static final class Database {
+        final String name;
+        final String charset;
+        final String collation;
+
+        Database(String name, String charset, String collation) {
+            this.name = name;
+            this.charset = charset;
+            this.collation = collation;
+        }
+    }
+
+    private static final class Table {
+        final String schema;
+        final String name;
+        String createTime;
+        String updateTime;
+        String backup;
+        String ddl;
+        String checksum;
+
+        Table(String schema, String name, String createTime, String updateTime) {
+            this.schema = schema;
+            this.name = name;
+            this.createTime = createTime;
+            this.updateTime = updateTime;
+        }
+
+        String key() {
+            return schema + "." + name;
+        }
+
+        String quotedName() {
+            return quoteName(schema, name);
+        }
+    }
+}
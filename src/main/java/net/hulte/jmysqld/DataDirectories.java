@@ -0,0 +1,102 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static net.hulte.jmysqld.Utilities.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Operations on the files of data directories that aren't in use by any server.
+ */
+final class DataDirectories {
+
+    /**
+     * Clones a data directory. {@code .frm} files are never modified in place by the server, and are
+     * thus hard-linked if possible. Any other files are copied in parallel.
+     *
+     * @param excludedFiles names of files in the root of {@code source} that aren't cloned
+     */
+    static void cloneDataDirectory(final Path source, final Path target, final Set<String> excludedFiles)
+            throws IOException {
+
+        final List<Callable<Void>> copies = list();
+
+        walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                createDirectories(target(dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFile(final Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                final Path copy = target(file);
+                if (file.getParent().equals(source)
+                        && excludedFiles.contains(file.getFileName().toString())) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (file.getFileName().toString().endsWith(".frm") && tryLink(copy, file)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                copies.add(new Callable<Void>() {
+                    @Override public Void call() throws IOException {
+                        copyFile(file, copy);
+                        return null;
+                    }
+                });
+                return FileVisitResult.CONTINUE;
+            }
+
+            Path target(Path p) {
+                return target.resolve(source.relativize(p).toString());
+            }
+        });
+
+        runAll(copies);
+    }
+
+    /**
+     * Hard-links a file, returning {@code false} if not supported by the file system.
+     */
+    static boolean tryLink(Path link, Path existing) {
+        try {
+            createLink(link, existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs file operations in parallel, rethrowing the first failure.
+     */
+    static void runAll(List<Callable<Void>> operations) throws IOException {
+        final int threads = Math.min(operations.size(), Runtime.getRuntime().availableProcessors());
+        if (threads == 0) {
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, namedDaemons("data-dir-io"));
+        try {
+            for (Future<Void> f : executor.invokeAll(operations)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private DataDirectories() {}
+}
@@ -0,0 +1,144 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.Utilities.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import org.slf4j.Logger;
+
+/**
+ * Deletes the directories of disposed instances in the background, one at a time on a single shared
+ * thread. Deletion is throttled to {@value #bytesPerSecond} bytes per second, since unlinking large
+ * files may otherwise stall the I/O of the instances still running.
+ *
+ * <p>Directories still queued when the JVM exits are deleted, without throttling, by a shutdown-hook,
+ * which gives up after {@value #exitTimeoutMillis} ms and leaves the remaining directories behind.</p>
+ */
+final class DataDirectoryReclaimer {
+
+    static final long bytesPerSecond = 256L * 1024 * 1024;
+    static final long exitTimeoutMillis = 30000;
+    private static final long killTimeoutMillis = 10000;
+
+    private static final DataDirectoryReclaimer instance = new DataDirectoryReclaimer();
+
+    private final Logger logger = getLogger(getClass());
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), namedDaemons("data-dir-reclaimer"));
+    private volatile boolean exiting;
+
+
+    static DataDirectoryReclaimer dataDirectoryReclaimer() {
+        return instance;
+    }
+
+    private DataDirectoryReclaimer() {
+        executor.allowCoreThreadTimeOut(true);
+        addShutdownHook(this::drain);
+    }
+
+
+    /**
+     * Deletes a directory, including all of its contents, in the background.
+     *
+     * @return a future that is completed once the directory has been deleted, or couldn't be
+     */
+    Future<?> reclaim(final Path dir) {
+        return executor.submit(() -> deleteNow(dir));
+    }
+
+    /**
+     * Deletes directories in the background like {@link #reclaim(Path)}, once a killed process has
+     * exited. A callback is run in between, e.g. to release the resources held by the process. The
+     * directories are left behind if the process is still alive after {@value #killTimeoutMillis} ms.
+     *
+     * @param pid the process, or {@code null} if unknown, in which case nothing is waited for
+     * @return a future that is completed once the directories have been deleted, or couldn't be
+     */
+    Future<?> reclaimAfterExit(final String pid, final Runnable exited, final Path... dirs) {
+        return executor.submit(() -> {
+            final long start = System.nanoTime();
+            while (pid != null && ResourceRegistry.isAlive(pid)) {
+                if (millisSince(start) > killTimeoutMillis) {
+                    logger.warn("Process " + pid + " is still alive, leaving " + Arrays.asList(dirs) + " behind.");
+                    return;
+                }
+                sleep(10);
+            }
+
+            exited.run();
+            for (Path dir : dirs) {
+                deleteNow(dir);
+            }
+        });
+    }
+
+    private void deleteNow(Path dir) {
+        final long start = System.nanoTime();
+        try {
+            final long bytes = delete(dir, exiting ? Long.MAX_VALUE : bytesPerSecond);
+            logger.debug("Reclaimed " + bytes + " bytes in " + dir + " in " + millisSince(start) + " ms.");
+        } catch (IOException e) {
+            logger.warn("Unable to reclaim " + dir + ".", e);
+        }
+    }
+
+    /**
+     * Waits for the queued directories to be deleted, as the JVM exits.
+     */
+    private void drain() {
+        exiting = true;
+        final long start = System.nanoTime();
+        while (!executor.getQueue().isEmpty() || executor.getActiveCount() > 0) {
+            if (millisSince(start) > exitTimeoutMillis) {
+                logger.warn("Leaving " + executor.getQueue().size() + " data directories behind on exit.");
+                return;
+            }
+            sleep(10);
+        }
+    }
+
+    /**
+     * Deletes a directory, sleeping whenever the size of the files deleted so far is ahead of the
+     * given rate.
+     *
+     * @return the number of bytes deleted
+     */
+    static long delete(Path dir, final long bytesPerSecond) throws IOException {
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            return 0;
+        }
+
+        final long start = System.nanoTime();
+        final long[] deleted = {0};
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.delete(file);
+                deleted[0] += attrs.size();
+
+                final long due = deleted[0] * 1000 / bytesPerSecond;
+                final long elapsed = millisSince(start);
+                if (due > elapsed) {
+                    sleep(due - elapsed);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult postVisitDirectory(Path d, IOException e)
+                    throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return deleted[0];
+    }
+}
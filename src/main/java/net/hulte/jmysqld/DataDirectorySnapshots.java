@@ -0,0 +1,232 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.Utilities.*;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.zip.*;
+
+/**
+ * Content-addressed snapshots of data directories that have been shut down cleanly.
+ *
+ * <p>A snapshot is a directory holding a manifest, which lists the directories and files of the data
+ * directory along with the SHA-256 digest of each file. The contents of the files are kept as objects
+ * named after their digest in a store shared by all snapshots in the same parent directory, so files
+ * that are unchanged between snapshots are only stored once. Objects are optionally gzip-compressed.</p>
+ *
+ * <p>Restoring hard-links the {@code .frm} files of uncompressed snapshots, since they're never
+ * modified in place by the server, and copies any other files in parallel.</p>
+ */
+final class DataDirectorySnapshots {
+
+    static final String manifestFile = "manifest";
+    static final String objectsDir = "objects";
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    private static final String header = "jmysqld-snapshot 1";
+
+    /**
+     * Files in the root of a data directory that aren't part of a snapshot. {@code auto.cnf} holds the
+     * server UUID which has to be unique for each data directory.
+     */
+    private static final Set<String> excludedFiles = new HashSet<>(Arrays.asList("auto.cnf",
+        BinaryDistributionMySqlServer.optionsFileName, "error.log"));
+
+    private static final String pidFile = "mysql.pid";
+
+
+    /**
+     * Snapshots a data directory.
+     *
+     * @throws IllegalStateException if the data directory appears to be in use by a server
+     * @throws IllegalArgumentException if the snapshot already exists
+     */
+    static void snapshot(final Path dataDir, Path snapshot, final boolean compress) throws IOException {
+        if (exists(dataDir.resolve(pidFile))) {
+            throw new IllegalStateException("The data directory " + dataDir + " has a pid-file, and is "
+                + "either in use or wasn't shut down cleanly.");
+        }
+        if (exists(snapshot)) {
+            throw new IllegalArgumentException("The snapshot " + snapshot + " already exists.");
+        }
+
+        final Path objects = objectsOf(snapshot);
+        final List<String> directories = list();
+        final List<Path> files = list();
+
+        walkFileTree(dataDir, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(dataDir)) {
+                    directories.add(relativeName(dataDir, dir));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!(file.getParent().equals(dataDir) && excludedFiles.contains(file.getFileName().toString()))) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        final String[] digests = new String[files.size()];
+        final List<Callable<Void>> stores = list();
+        for (int i = 0; i < files.size(); i++) {
+            final int index = i;
+            stores.add(new Callable<Void>() {
+                @Override public Void call() throws IOException {
+                    digests[index] = store(files.get(index), objects, compress);
+                    return null;
+                }
+            });
+        }
+        createDirectories(objects);
+        DataDirectories.runAll(stores);
+
+        final StringBuilder manifest = new StringBuilder(header + "\n")
+            .append("compressed ").append(compress).append('\n');
+        for (String d : directories) {
+            manifest.append("d ").append(d).append('\n');
+        }
+        for (int i = 0; i < files.size(); i++) {
+            manifest.append("f ").append(digests[i]).append(' ')
+                .append(relativeName(dataDir, files.get(i))).append('\n');
+        }
+
+        final Path tmp = snapshot.resolveSibling(".tmp-" + randomUUID());
+        try {
+            createDirectories(tmp);
+            write(tmp.resolve(manifestFile), manifest.toString().getBytes(utf8));
+            move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    /**
+     * Restores a snapshot into a data directory, which must be empty or not exist.
+     *
+     * @throws IllegalArgumentException if the snapshot doesn't exist, or the data directory isn't empty
+     */
+    static void restore(Path snapshot, final Path dataDir) throws IOException {
+        final Path manifest = snapshot.resolve(manifestFile);
+        if (!exists(manifest)) {
+            throw new IllegalArgumentException("No snapshot found in " + snapshot + ".");
+        }
+        if (exists(dataDir)) {
+            try (DirectoryStream<Path> contents = newDirectoryStream(dataDir)) {
+                if (contents.iterator().hasNext()) {
+                    throw new IllegalArgumentException("The data directory " + dataDir + " isn't empty.");
+                }
+            }
+        }
+
+        final List<String> lines = readAllLines(manifest, utf8);
+        if (lines.size() < 2 || !lines.get(0).equals(header)) {
+            throw new IllegalArgumentException("Unsupported snapshot format in " + snapshot + ".");
+        }
+        final boolean compressed = lines.get(1).equals("compressed true");
+        final Path objects = objectsOf(snapshot);
+
+        createDirectories(dataDir);
+        final List<Callable<Void>> copies = list();
+        for (String line : lines.subList(2, lines.size())) {
+            if (line.startsWith("d ")) {
+                createDirectories(dataDir.resolve(line.substring(2)));
+            } else if (line.startsWith("f ")) {
+                final int separator = line.indexOf(' ', 2);
+                final String name = line.substring(separator + 1);
+                final Path object = objectPath(objects, line.substring(2, separator), compressed);
+                final Path target = dataDir.resolve(name);
+
+                if (!compressed && name.endsWith(".frm") && DataDirectories.tryLink(target, object)) {
+                    continue;
+                }
+                copies.add(new Callable<Void>() {
+                    @Override public Void call() throws IOException {
+                        if (compressed) {
+                            try (InputStream in = new GZIPInputStream(newInputStream(object), 64 * 1024)) {
+                                copy(in, target);
+                            }
+                        } else {
+                            copyFile(object, target);
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+
+        DataDirectories.runAll(copies);
+    }
+
+    /**
+     * Stores the contents of a file as an object, unless an object with the same digest already
+     * exists.
+     *
+     * @return the digest of the file
+     */
+    private static String store(Path file, Path objects, boolean compress) throws IOException {
+        final String digest = sha256(file);
+        final Path object = objectPath(objects, digest, compress);
+        if (exists(object)) {
+            return digest;
+        }
+
+        createDirectories(object.getParent());
+        final Path tmp = objects.resolve(".tmp-" + randomUUID());
+        try {
+            if (compress) {
+                try (OutputStream out = new GZIPOutputStream(newOutputStream(tmp), 64 * 1024)) {
+                    copy(file, out);
+                }
+            } else {
+                copyFile(file, tmp);
+            }
+            move(tmp, object, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            deleteIfExists(tmp);
+        }
+        return digest;
+    }
+
+    static String sha256(Path file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static Path objectsOf(Path snapshot) {
+        return snapshot.toAbsolutePath().getParent().resolve(objectsDir);
+    }
+
+    private static Path objectPath(Path objects, String digest, boolean compressed) {
+        return objects.resolve(digest.substring(0, 2)).resolve(digest + (compressed ? ".gz" : ""));
+    }
+
+    private static String relativeName(Path root, Path p) {
+        return root.relativize(p).toString().replace(File.separatorChar, '/');
+    }
+
+    private DataDirectorySnapshots() {}
+}
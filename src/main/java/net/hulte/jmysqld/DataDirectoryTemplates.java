@@ -0,0 +1,276 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import org.slf4j.Logger;
+
+/**
+ * A cache of pristine, initialized data directories. New data directories are cloned from a template
+ * instead of being installed from scratch, and the (slow) installer only runs the first time a template
+ * is requested.
+ *
+ * <p>Templates are identified by a key describing everything that affects the outcome of the
+ * installation, and grouped by the distribution they were installed from. Creating a template for a new
+ * key removes all other templates in the same group, so templates are invalidated as soon as the
+ * distribution changes. The cache may be shared by several JVMs, so the templates of a group are
+ * installed and removed while holding a {@link GroupLock} exclusively, and cloned while holding it
+ * shared.</p>
+ */
+final class DataDirectoryTemplates {
+
+    /**
+     * Installs a new data directory.
+     */
+    interface Installer {
+        void install(Path dataDir);
+    }
+
+    private static final String propertiesFile = "template.properties";
+
+    /**
+     * Files excluded when cloning a template. {@code auto.cnf} holds the server UUID which has to be
+     * unique for each data directory.
+     */
+    private static final Set<String> excludedFiles = new HashSet<>(Arrays.asList(propertiesFile, "auto.cnf"));
+
+    private final Logger logger = getLogger(getClass());
+    private final Path templatesDir;
+
+
+    DataDirectoryTemplates(Path templatesDir) {
+        this.templatesDir = templatesDir.toAbsolutePath();
+    }
+
+
+    /**
+     * Initializes a data directory by cloning the template identified by a group and key. The template
+     * is installed using {@code installer} if it doesn't exist.
+     *
+     * @throws MySqlProcessException
+     */
+    void initialize(Path dataDir, String group, String key, Installer installer) {
+        final GroupLock lock = lock(group);
+        while (true) {
+            final Path template = template(group, key, installer);
+            final long start = System.nanoTime();
+
+            acquire(lock, template, true);
+            try {
+                // removed by another JVM, installing a template of another distribution in the meantime
+                if (!exists(template)) {
+                    continue;
+                }
+                cloneTemplate(template, dataDir);
+            } finally {
+                lock.unlockShared();
+            }
+
+            logger.debug("Cloned template " + template.getFileName() + " into " + dataDir + " in "
+                + millisSince(start) + " ms, installing it took " + installMillis(template) + " ms.");
+            return;
+        }
+    }
+
+    /**
+     * Returns the lock of a group of templates, kept in a {@code locks} directory next to the templates.
+     */
+    GroupLock lock(String group) {
+        return GroupLock.of(templatesDir.resolveSibling("locks").resolve("templates-" + sha1(group) + ".lock"));
+    }
+
+    private synchronized Path template(String group, String key, Installer installer) {
+        final String groupPrefix = sha1(group) + "-";
+        final Path template = templatesDir.resolve(groupPrefix + sha1(key));
+
+        if (exists(template)) {
+            return template;
+        }
+
+        final GroupLock lock = lock(group);
+        acquire(lock, template, false);
+        try {
+            if (!exists(template)) {
+                install(group, key, template, installer);
+            }
+            removeStaleTemplates(groupPrefix, template);
+        } finally {
+            lock.unlockExclusive();
+        }
+        return template;
+    }
+
+    private void install(String group, String key, Path template, Installer installer) {
+        final Path tmp = templatesDir.resolve(".tmp-" + randomUUID());
+        try {
+            createDirectories(tmp);
+
+            final long start = System.nanoTime();
+            installer.install(tmp);
+            final long installMillis = millisSince(start);
+
+            final Properties props = new Properties();
+            props.setProperty("group", group);
+            props.setProperty("key", key);
+            props.setProperty("installMillis", String.valueOf(installMillis));
+            try (OutputStream out = newOutputStream(tmp.resolve(propertiesFile))) {
+                props.store(out, null);
+            }
+
+            // moving onto a directory installed by another JVM fails with a plain FileSystemException
+            // ("Directory not empty") on Linux, rather than with one of its more specific subclasses
+            try {
+                move(tmp, template, StandardCopyOption.ATOMIC_MOVE);
+                logger.debug("Installed template " + template.getFileName() + " in " + installMillis + " ms.");
+            } catch (IOException e) {
+                if (!isDirectory(template)) {
+                    throw e;
+                }
+                logger.debug("Template " + template.getFileName() + " was concurrently installed elsewhere.");
+            }
+        } catch (IOException e) {
+            throw new MySqlProcessException("Unable to install template in " + tmp + ".", e);
+        } finally {
+            deleteQuietly(tmp);
+        }
+    }
+
+    private static void acquire(GroupLock lock, Path template, boolean shared) {
+        try {
+            if (shared) {
+                lock.lockShared();
+            } else {
+                lock.lockExclusive();
+            }
+        } catch (IOException e) {
+            throw new MySqlProcessException("Unable to lock template " + template + ".", e);
+        }
+    }
+
+    private void removeStaleTemplates(String groupPrefix, Path current) {
+        try (DirectoryStream<Path> templates = newDirectoryStream(templatesDir, groupPrefix + "*")) {
+            for (Path t : templates) {
+                if (!t.equals(current)) {
+                    logger.debug("Removing stale template " + t.getFileName() + ".");
+                    deleteQuietly(t);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to remove stale templates from " + templatesDir + ".", e);
+        }
+    }
+
+    private void cloneTemplate(Path template, Path dataDir) {
+        try {
+            DataDirectories.cloneDataDirectory(template, dataDir, excludedFiles);
+        } catch (IOException e) {
+            throw new MySqlProcessException("Unable to clone template " + template + " into "
+                + dataDir + ".", e);
+        }
+    }
+
+    private static String installMillis(Path template) {
+        final Properties props = new Properties();
+        try (InputStream in = newInputStream(template.resolve(propertiesFile))) {
+            props.load(in);
+        } catch (IOException e) {
+            return "?";
+        }
+        return props.getProperty("installMillis", "?");
+    }
+
+    /**
+     * A lock of a group of templates, held by all JVMs using the cache through a lock of a file. The
+     * threads of a JVM share one lock of the file while holding the group lock shared, since a JVM
+     * can't hold overlapping locks of the same file.
+     */
+    static final class GroupLock {
+
+        private static final ConcurrentMap<Path, GroupLock> locks = new ConcurrentHashMap<>();
+
+        private final Logger logger = getLogger(getClass());
+        private final Path file;
+        private final ReadWriteLock threads = new ReentrantReadWriteLock();
+        private FileChannel channel;
+        private int sharers;
+
+
+        private GroupLock(Path file) {
+            this.file = file;
+        }
+
+
+        static GroupLock of(Path file) {
+            return locks.computeIfAbsent(file, GroupLock::new);
+        }
+
+        void lockShared() throws IOException {
+            threads.readLock().lock();
+            synchronized (this) {
+                try {
+                    if (sharers == 0) {
+                        channel = open(true);
+                    }
+                    sharers++;
+                } catch (IOException | RuntimeException e) {
+                    threads.readLock().unlock();
+                    throw e;
+                }
+            }
+        }
+
+        void unlockShared() {
+            synchronized (this) {
+                if (--sharers == 0) {
+                    close();
+                }
+            }
+            threads.readLock().unlock();
+        }
+
+        void lockExclusive() throws IOException {
+            threads.writeLock().lock();
+            try {
+                channel = open(false);
+            } catch (IOException | RuntimeException e) {
+                threads.writeLock().unlock();
+                throw e;
+            }
+        }
+
+        void unlockExclusive() {
+            close();
+            threads.writeLock().unlock();
+        }
+
+        private FileChannel open(boolean shared) throws IOException {
+            createDirectories(file.getParent());
+            final FileChannel result = FileChannel.open(file, CREATE, READ, WRITE);
+            try {
+                result.lock(0, Long.MAX_VALUE, shared);
+            } catch (IOException | RuntimeException e) {
+                result.close();
+                throw e;
+            }
+            return result;
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Unable to release the lock of " + file + ".", e);
+            }
+            channel = null;
+        }
+    }
+}
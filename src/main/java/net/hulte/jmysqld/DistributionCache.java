@@ -0,0 +1,314 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.MySqlProcess.startMySqlProcess;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+import org.slf4j.Logger;
+
+/**
+ * Extracts binary distributions of MySQL from local tar archives into a cache directory, shared by
+ * all JVMs using the directory. Each distribution is extracted into a directory named after the
+ * SHA-256 digest of its archive, and the digest of each archive is recorded in an index by its path,
+ * size and modification time, so that using an archive again is a lookup.
+ *
+ * <p>Archives are decompressed and extracted as a stream, in a single pass, with {@code xz} forked to
+ * decompress {@code .tar.xz} archives. The files are written in parallel, while holding no more than
+ * {@value #maxBufferedBytes} bytes in memory. The top-level directory of the archive is stripped, as by
+ * {@code tar --strip-components=1}.</p>
+ *
+ * <p>A minimal distribution leaves out the test suite, documentation, headers and static libraries,
+ * which aren't needed to run the server.</p>
+ */
+final class DistributionCache {
+
+    private static final Logger logger = getLogger(DistributionCache.class);
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    private static final long maxBufferedBytes = 64L * 1024 * 1024;
+    private static final Set<String> unneededDirs = new HashSet<>(Arrays.asList(
+        "mysql-test", "sql-bench", "docs", "man", "include"));
+
+    private final Path dir;
+
+
+    DistributionCache(Path cacheDir) {
+        this.dir = cacheDir.toAbsolutePath().resolve("distributions");
+    }
+
+
+    /**
+     * Returns the directory of the distribution in an archive, extracting it unless already cached.
+     *
+     * @param minimal whether to extract only the files needed to run the server
+     * @throws IllegalArgumentException if the archive doesn't exist
+     * @throws MySqlProcessException if unable to extract the archive
+     */
+    Path extract(final Path archive, final boolean minimal) {
+        if (!isRegularFile(archive)) {
+            throw new IllegalArgumentException("No archive found at " + archive + ".");
+        }
+
+        return locked(new Locked<Path>() {
+            @Override public Path run() throws IOException {
+                final long start = System.nanoTime();
+                final Path index = dir.resolve("index.properties");
+                final Properties digests = new Properties();
+                if (exists(index)) {
+                    try (Reader r = newBufferedReader(index, utf8)) {
+                        digests.load(r);
+                    }
+                }
+
+                final File f = archive.toAbsolutePath().toFile();
+                final String key = f + ":" + f.length() + ":" + f.lastModified();
+                String digest = digests.getProperty(key);
+                if (digest == null) {
+                    digest = DataDirectorySnapshots.sha256(archive);
+                    digests.setProperty(key, digest);
+
+                    final Path tmp = dir.resolve(".tmp-" + randomUUID());
+                    try (Writer w = newBufferedWriter(tmp, utf8)) {
+                        digests.store(w, null);
+                    }
+                    move(tmp, index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                final Path target = dir.resolve(digest + (minimal ? "-minimal" : ""));
+                if (exists(target)) {
+                    return target;
+                }
+
+                final Path tmp = dir.resolve(".tmp-" + randomUUID());
+                try {
+                    extract(archive, tmp, minimal);
+                    move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    deleteRecursively(tmp);
+                }
+                logger.debug("Extracted " + archive + " to " + target + " in " + millisSince(start) + " ms.");
+                return target;
+            }
+        });
+    }
+
+    /**
+     * Extracts an archive into a directory, writing the files in parallel.
+     */
+    static void extract(Path archive, Path target, boolean minimal) throws IOException {
+        final String name = archive.getFileName().toString();
+        final MySqlProcess xz = name.endsWith(".xz") || name.endsWith(".txz")
+            ? startMySqlProcess(new ProcessBuilder("xz", "--decompress", "--stdout", archive.toString()))
+            : null;
+
+        final int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        final ExecutorService writers = Executors.newFixedThreadPool(threads, namedDaemons("distribution-writer"));
+        final Semaphore buffered = new Semaphore((int) (maxBufferedBytes / 1024));
+        final List<Future<?>> writes = list();
+        final Map<Path, String> hardLinks = new LinkedHashMap<>();
+        boolean extracted = false;
+
+        try (InputStream in = decompressed(archive, xz)) {
+            createDirectories(target);
+            final Path realTarget = target.toRealPath();
+            final TarArchive tar = new TarArchive(in);
+            TarArchive.Entry e;
+
+            while ((e = tar.next()) != null) {
+                final String relative = stripTopLevel(e.name);
+                if (relative.isEmpty() || (minimal && !isNeededToRun(relative))) {
+                    continue;
+                }
+
+                final Path p = resolve(target, relative);
+                if (e.isDirectory()) {
+                    createDirectoriesWithin(realTarget, p);
+                    continue;
+                }
+
+                createDirectoriesWithin(realTarget, p.getParent());
+                if (isSymbolicLink(p)) {
+                    throw new IOException("Refusing to extract " + relative + " through a symbolic link.");
+                }
+                if (e.isSymbolicLink()) {
+                    final Path link = path(e.linkName);
+                    if (link.isAbsolute()
+                            || !p.getParent().toRealPath().resolve(link).normalize().startsWith(realTarget)) {
+                        throw new IOException("Refusing to extract " + relative + ", linking to " + e.linkName
+                            + " outside of " + target + ".");
+                    }
+                    createSymbolicLink(p, link);
+                } else if (e.isHardLink()) {
+                    hardLinks.put(p, stripTopLevel(e.linkName));
+                } else if (e.isFile() && e.size > maxBufferedBytes) {
+                    copy(tar.contents(), p);
+                    setMode(p, e.mode);
+                } else if (e.isFile()) {
+                    final int permits = (int) Math.max(1, e.size / 1024);
+                    execute(new Interruptible() {
+                        @Override public void run() throws InterruptedException {
+                            buffered.acquire(permits);
+                        }
+                    });
+
+                    final byte[] contents = tar.readContents();
+                    final int mode = e.mode;
+                    writes.add(writers.submit(new Callable<Void>() {
+                        @Override public Void call() throws IOException {
+                            try {
+                                write(p, contents);
+                                setMode(p, mode);
+                            } finally {
+                                buffered.release(permits);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+            }
+
+            // drains the padding after the end of the archive, so that xz can exit
+            final byte[] padding = new byte[64 * 1024];
+            while (in.read(padding) != -1) {
+                continue;
+            }
+
+            for (Future<?> w : writes) {
+                await(w);
+            }
+            extracted = true;
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        } finally {
+            writers.shutdownNow();
+            if (xz != null && !extracted) {
+                xz.destroy();
+            }
+        }
+
+        if (xz != null) {
+            xz.waitForSuccessfulCompletion();
+        }
+
+        for (Map.Entry<Path, String> link : hardLinks.entrySet()) {
+            final Path existing = resolve(target, link.getValue());
+            if (!exists(existing)) {
+                continue;
+            }
+            if (!existing.toRealPath().startsWith(target.toRealPath())) {
+                throw new IOException("Refusing to link " + link.getValue() + " outside of " + target + ".");
+            }
+            if (!DataDirectories.tryLink(link.getKey(), existing)) {
+                copyFile(existing, link.getKey());
+            }
+        }
+    }
+
+    private static InputStream decompressed(Path archive, MySqlProcess xz) throws IOException {
+        final String name = archive.getFileName().toString();
+        if (xz != null) {
+            return new BufferedInputStream(xz.stdOut(), 64 * 1024);
+        }
+        if (name.endsWith(".gz") || name.endsWith(".tgz")) {
+            return new GZIPInputStream(newInputStream(archive), 64 * 1024);
+        }
+        return new BufferedInputStream(newInputStream(archive), 64 * 1024);
+    }
+
+    /**
+     * Returns {@code false} for the files of a distribution that aren't needed to run the server.
+     */
+    static boolean isNeededToRun(String name) {
+        final int slash = name.indexOf('/');
+        final String top = slash == -1 ? name : name.substring(0, slash);
+        return !unneededDirs.contains(top)
+            && !name.endsWith(".a")
+            && !name.equals("bin/mysqld-debug")
+            && !name.startsWith("lib/plugin/debug/");
+    }
+
+    private static String stripTopLevel(String name) {
+        final int slash = name.indexOf('/');
+        return slash == -1 ? "" : name.substring(slash + 1);
+    }
+
+    /**
+     * Resolves the name of an entry, refusing names that would end up outside of the target. Symbolic
+     * links are checked as the entries are written.
+     */
+    private static Path resolve(Path target, String name) throws IOException {
+        final Path result = target.resolve(name).normalize();
+        if (!result.startsWith(target)) {
+            throw new IOException("Refusing to extract " + name + " outside of " + target + ".");
+        }
+        return result;
+    }
+
+    /**
+     * Creates a directory and its parents, refusing to create them through a symbolic link to outside
+     * of the target.
+     */
+    private static void createDirectoriesWithin(Path realTarget, Path dir) throws IOException {
+        Path existing = dir;
+        while (!exists(existing, LinkOption.NOFOLLOW_LINKS)) {
+            existing = existing.getParent();
+        }
+        if (!existing.toRealPath().startsWith(realTarget)) {
+            throw new IOException("Refusing to extract " + dir + " through a symbolic link to outside of "
+                + realTarget + ".");
+        }
+        createDirectories(dir);
+    }
+
+    private static void setMode(Path p, int mode) throws IOException {
+        if ((mode & 0111) == 0) {
+            return;
+        }
+
+        try {
+            final Set<PosixFilePermission> permissions = getPosixFilePermissions(p);
+            permissions.add(PosixFilePermission.OWNER_EXECUTE);
+            if ((mode & 0010) != 0) {
+                permissions.add(PosixFilePermission.GROUP_EXECUTE);
+            }
+            if ((mode & 0001) != 0) {
+                permissions.add(PosixFilePermission.OTHERS_EXECUTE);
+            }
+            setPosixFilePermissions(p, permissions);
+        } catch (UnsupportedOperationException e) {
+            p.toFile().setExecutable(true);
+        }
+    }
+
+    private <T> T locked(Locked<T> task) {
+        synchronized (DistributionCache.class) {
+            try {
+                createDirectories(dir);
+                try (FileChannel channel = FileChannel.open(dir.resolve("cache.lock"),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                     FileLock lock = channel.lock()) {
+
+                    return task.run();
+                }
+            } catch (IOException e) {
+                throw new MySqlProcessException("Unable to extract a distribution into " + dir + ".", e);
+            }
+        }
+    }
+
+    private interface Locked<T> {
+        T run() throws IOException;
+    }
+}
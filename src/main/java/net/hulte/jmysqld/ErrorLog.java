@@ -0,0 +1,112 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.nio.file.StandardOpenOption.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.regex.*;
+import net.hulte.jmysqld.ErrorLogEvent.Severity;
+import org.slf4j.Logger;
+
+/**
+ * Follows the error-log of an instance from its current end, parsing each new line into an
+ * {@link ErrorLogEvent}. The first line matching a known fatal pattern is recorded, so that a failing
+ * start can be detected before the server process exits.
+ */
+final class ErrorLog implements ProcessPump.LineSink {
+
+    /**
+     * Matches the severity tag of all server versions, e.g. {@code 130102 12:00:00 [ERROR] ...},
+     * {@code 2013-01-02 12:00:00 1234 [Note] ...} and {@code 2019-01-02T12:00:00.123456Z 0 [System] ...}.
+     */
+    private static final Pattern severityPattern =
+        Pattern.compile("^[\\d\\-:.TZ ]+\\[(System|Note|Warning|ERROR|Error)\\]\\s*(.*)$");
+
+    /**
+     * Matches lines of a failing start. Unknown options and corruption are only fatal when reported as
+     * errors, or as InnoDB's corrupt page message, since warnings of unknown {@code loose-} options,
+     * and notes of crash recovery and checks, mention them too.
+     */
+    private static final Pattern fatalPattern = Pattern.compile(".*("
+        + "Fatal error"
+        + "|Address already in use"
+        + "|Do you already have another mysqld server running"
+        + "|\\[(?:ERROR|Error)\\].*unknown (?:variable|option)"
+        + "|Unable to lock \\S+ error"
+        + "|\\[(?:ERROR|Error)\\].*[Cc]orrupt"
+        + "|Database page corruption on disk"
+        + "|Assertion failure"
+        + "|Aborting"
+        + ").*");
+
+    private static final int recentChars = 4 * 1024;
+
+    private final Logger logger = getLogger(getClass());
+    private final Path file;
+    private final Path dataDir;
+    private final ErrorLogListener listener;
+    private final TailBuffer recent = new TailBuffer(recentChars);
+    private volatile ErrorLogEvent fatal;
+
+
+    ErrorLog(Path file, Path dataDir, ErrorLogListener listener) {
+        this.file = file;
+        this.dataDir = dataDir;
+        this.listener = listener;
+    }
+
+
+    /**
+     * Opens the error-log positioned at its current end, creating it, and its directory, if it
+     * doesn't exist.
+     */
+    InputStream openAtEnd() throws IOException {
+        createDirectories(file.getParent());
+        final SeekableByteChannel channel = newByteChannel(file, CREATE, READ, WRITE);
+        channel.position(channel.size());
+        return Channels.newInputStream(channel);
+    }
+
+    @Override
+    public void line(String line) {
+        recent.line(line);
+
+        final ErrorLogEvent e = parse(dataDir, line);
+        if (fatal == null && fatalPattern.matcher(line).matches()) {
+            fatal = e;
+        }
+
+        if (listener != null) {
+            try {
+                listener.onEvent(e);
+            } catch (RuntimeException ex) {
+                logger.warn("Error-log listener failed.", ex);
+            }
+        }
+    }
+
+    /**
+     * Returns the first event matching a known fatal pattern, or {@code null}.
+     */
+    ErrorLogEvent fatalEvent() {
+        return fatal;
+    }
+
+    /**
+     * Returns the last lines read from the error-log.
+     */
+    String recentLines() {
+        return recent.toString().trim();
+    }
+
+    static ErrorLogEvent parse(Path dataDir, String line) {
+        final Matcher m = severityPattern.matcher(line);
+        if (!m.matches()) {
+            return new ErrorLogEvent(dataDir, Severity.UNKNOWN, line, line);
+        }
+        return new ErrorLogEvent(dataDir, Severity.valueOf(m.group(1).toUpperCase()), m.group(2), line);
+    }
+}
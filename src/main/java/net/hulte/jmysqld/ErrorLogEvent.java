@@ -0,0 +1,63 @@
+package net.hulte.jmysqld;
+
+import java.nio.file.Path;
+
+/**
+ * A line written to the error-log of an instance.
+ */
+public final class ErrorLogEvent {
+
+    public enum Severity {
+        SYSTEM, NOTE, WARNING, ERROR,
+
+        /**
+         * Lines without a severity, e.g. those written by {@code mysqld_safe} or by InnoDB in older
+         * versions of the server.
+         */
+        UNKNOWN
+    }
+
+    private final Path dataDir;
+    private final Severity severity;
+    private final String message;
+    private final String line;
+
+
+    ErrorLogEvent(Path dataDir, Severity severity, String message, String line) {
+        this.dataDir = dataDir;
+        this.severity = severity;
+        this.message = message;
+        this.line = line;
+    }
+
+
+    /**
+     * Returns the data directory of the instance that wrote the event.
+     */
+    public Path getDataDir() {
+        return dataDir;
+    }
+
+    public Severity getSeverity() {
+        return severity;
+    }
+
+    /**
+     * Returns the message following the severity, or the whole line if it has no severity.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the line as written to the error-log.
+     */
+    public String getLine() {
+        return line;
+    }
+
+    @Override
+    public String toString() {
+        return line;
+    }
+}
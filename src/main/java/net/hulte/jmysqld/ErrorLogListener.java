@@ -0,0 +1,11 @@
+package net.hulte.jmysqld;
+
+/**
+ * Receives the events written to the error-log of an instance, while it's starting and running.
+ * Events are delivered in order, on a thread shared by all instances, so listeners shouldn't block.
+ */
+public interface ErrorLogListener {
+
+    void onEvent(ErrorLogEvent event);
+
+}
@@ -0,0 +1,527 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.newInputStream;
+import static net.hulte.jmysqld.MySqlClient.*;
+import static net.hulte.jmysqld.MySqlProcess.startMySqlProcess;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.*;
+import java.util.zip.GZIPInputStream;
+import org.slf4j.Logger;
+
+/**
+ * Loads fixtures into a running instance through a number of {@code mysql} client sessions.
+ *
+ * <p>SQL files are streamed statement by statement. Statements affecting a single table, e.g. the
+ * {@code CREATE TABLE}, {@code LOCK TABLES} and {@code INSERT} statements of a dump, are routed to
+ * the session that the table is assigned to, so that the tables are loaded in parallel while the
+ * statements of each table keep their order. Session variables set by {@code SET} are replayed in
+ * all sessions, and any other statement is executed once all previous statements have completed.
+ * Each session runs with unique and foreign key checks disabled, and commits in batches.</p>
+ *
+ * <p>Files are read as ISO-8859-1 and written to the clients the same way, so their bytes are passed
+ * through unchanged whatever their encoding.</p>
+ */
+final class FixtureLoader {
+
+    private static final Charset latin1 = Charset.forName("ISO-8859-1");
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    private static final int commitInterval = 100;
+    private static final int queuedStatements = 16;
+    private static final long maxAllowedPacket = 1024L * 1024 * 1024;
+
+    private static final String name = "(`(?:[^`]|``)+`|[\\w$]+)";
+    private static final String qualifiedName = name + "(?:\\s*\\.\\s*" + name + ")?";
+
+    private static final Pattern versionedComment = Pattern.compile("^/\\*!\\d*\\s*(.*?)\\s*\\*/$",
+        Pattern.DOTALL);
+    private static final Pattern usePattern = pattern("USE\\s+" + name);
+    private static final Pattern insertPattern = pattern(
+        "(?:INSERT|REPLACE)(?:\\s+(?:LOW_PRIORITY|DELAYED|HIGH_PRIORITY|IGNORE))*(?:\\s+INTO)?\\s+"
+        + qualifiedName + "\\s*(?:\\([^()]*\\)\\s*)?(?:VALUES?|SET)\\b.*");
+    private static final Pattern createPattern = pattern(
+        "CREATE\\s+TABLE(?:\\s+IF\\s+NOT\\s+EXISTS)?\\s+" + qualifiedName + "\\s*\\((.*)");
+    private static final Pattern alterPattern = pattern(
+        "(?:ALTER(?:\\s+IGNORE)?\\s+TABLE|TRUNCATE(?:\\s+TABLE)?|DROP\\s+TABLE(?:\\s+IF\\s+EXISTS)?)\\s+"
+        + qualifiedName + "(?:\\s+(.*))?");
+    private static final Pattern lockPattern = pattern(
+        "LOCK\\s+TABLES?\\s+" + qualifiedName + "\\s+(?:READ(?:\\s+LOCAL)?|(?:LOW_PRIORITY\\s+)?WRITE)");
+    private static final Pattern unlockPattern = pattern("UNLOCK\\s+TABLES?");
+    private static final Pattern setPattern = pattern(
+        "SET\\s+(?!GLOBAL\\b|PERSIST|PASSWORD\\b|ROLE\\b|DEFAULT\\s+ROLE\\b).*");
+    private static final Pattern globalPattern = Pattern.compile("@@GLOBAL\\.", Pattern.CASE_INSENSITIVE);
+    private static final Pattern selectPattern = Pattern.compile("\\bSELECT\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern otherTablesPattern = Pattern.compile("^RENAME\\b|,", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * How a statement is executed.
+     */
+    enum Route {
+        /** Selects the database of the following statements. */
+        USE,
+        /** Affects a single table, and is executed in the session of the table. */
+        TABLE,
+        /** Releases the locks of the session of the previous table statement. */
+        UNLOCK,
+        /** Sets session variables, and is executed in all sessions. */
+        SESSION,
+        /** Executed once all previous statements have completed. */
+        BARRIER
+    }
+
+    /**
+     * A classified statement.
+     */
+    static final class Statement {
+        final Route route;
+        final String database;
+        final String table;
+        final boolean counted;
+
+        Statement(Route route, String database, String table, boolean counted) {
+            this.route = route;
+            this.database = database;
+            this.table = table;
+            this.counted = counted;
+        }
+    }
+
+    private final Logger logger = getLogger(getClass());
+    private final Path mysql;
+    private final Path socket;
+
+
+    FixtureLoader(Path mysql, Path socket) {
+        this.mysql = mysql;
+        this.socket = socket;
+    }
+
+
+    /**
+     * @throws MySqlProcessException if any statement fails, or a file can't be read
+     */
+    LoadStatistics load(LoadSpec spec) {
+        final long start = System.nanoTime();
+        final MySqlClient control = new MySqlClient(mysql, socket);
+        final boolean csv = !spec.getCsvFiles().isEmpty();
+
+        final String[] globals = control.execute("SELECT @@GLOBAL.max_allowed_packet, @@GLOBAL.local_infile")
+            .get(0);
+        control.execute("SET GLOBAL max_allowed_packet = " + maxAllowedPacket
+            + (csv ? ", GLOBAL local_infile = 1" : ""));
+
+        final Counts counts = new Counts();
+        try {
+            if (csv) {
+                loadCsvFiles(spec, counts);
+            }
+            for (Path file : spec.getSqlFiles()) {
+                loadSqlFile(file, spec, counts);
+            }
+        } catch (RuntimeException e) {
+            // a failure to restore the globals mustn't hide the failure to load
+            try {
+                restoreGlobals(control, globals, csv);
+            } catch (RuntimeException restoreFailure) {
+                e.addSuppressed(restoreFailure);
+            }
+            throw e;
+        }
+        restoreGlobals(control, globals, csv);
+
+        final LoadStatistics result = new LoadStatistics(counts.statements, counts.rows.get(),
+            millisSince(start));
+        logger.debug("Loaded fixtures through " + socket + ": " + result + ".");
+        return result;
+    }
+
+    private static void restoreGlobals(MySqlClient control, String[] globals, boolean csv) {
+        control.execute("SET GLOBAL max_allowed_packet = " + globals[0]
+            + (csv ? ", GLOBAL local_infile = " + ("1".equals(globals[1]) ? 1 : 0) : ""));
+    }
+
+    /**
+     * Classifies a statement read while {@code database} is the current database.
+     */
+    static Statement classify(String sql, String database) {
+        String s = sql.trim();
+        final Matcher comment = versionedComment.matcher(s);
+        if (comment.matches()) {
+            s = comment.group(1);
+        }
+
+        Matcher m = usePattern.matcher(s);
+        if (m.matches()) {
+            return new Statement(Route.USE, unquoteName(m.group(1)), null, false);
+        }
+
+        m = insertPattern.matcher(s);
+        if (m.matches()) {
+            return table(m, database, true);
+        }
+
+        m = createPattern.matcher(s);
+        if (m.matches()) {
+            final String rest = m.group(3);
+            final String options = rest.substring(rest.lastIndexOf(')') + 1);
+            return selectPattern.matcher(options).find()
+                ? barrier()
+                : table(m, database, false);
+        }
+
+        m = alterPattern.matcher(s);
+        if (m.matches()) {
+            return m.group(3) != null && otherTablesPattern.matcher(m.group(3)).find()
+                ? barrier()
+                : table(m, database, false);
+        }
+
+        m = lockPattern.matcher(s);
+        if (m.matches()) {
+            return table(m, database, false);
+        }
+
+        if (unlockPattern.matcher(s).matches()) {
+            return new Statement(Route.UNLOCK, null, null, false);
+        }
+
+        if (setPattern.matcher(s).matches() && !globalPattern.matcher(s).find()) {
+            return new Statement(Route.SESSION, null, null, false);
+        }
+
+        return barrier();
+    }
+
+    private static Statement table(Matcher m, String database, boolean counted) {
+        final String schema = m.group(2) == null ? database : unquoteName(m.group(1));
+        final String table = unquoteName(m.group(2) == null ? m.group(1) : m.group(2));
+        return new Statement(Route.TABLE, schema, table, counted);
+    }
+
+    private static Statement barrier() {
+        return new Statement(Route.BARRIER, null, null, false);
+    }
+
+    private static String unquoteName(String name) {
+        return name.startsWith("`")
+            ? name.substring(1, name.length() - 1).replace("``", "`")
+            : name;
+    }
+
+    private static Pattern pattern(String regex) {
+        return Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    }
+
+    private void loadSqlFile(Path file, LoadSpec spec, Counts counts) {
+        final Session[] sessions = new Session[Math.max(1, spec.getParallelism())];
+        final Map<String, Integer> tables = new HashMap<>();
+        final Set<String> sessionVariables = new LinkedHashSet<>();
+        String database = spec.getDatabase() == null ? null : transparent(spec.getDatabase());
+        Session serial = null;
+        Session lastTable = null;
+
+        try (Reader in = openSqlFile(file)) {
+            final SqlSplitter splitter = new SqlSplitter(in);
+            String sql;
+            while ((sql = splitter.next()) != null) {
+                counts.statements++;
+                final Statement s = classify(sql, database);
+
+                if (s.route == Route.USE) {
+                    database = s.database;
+                    continue;
+                }
+
+                if (s.route == Route.SESSION) {
+                    sessionVariables.remove(sql);
+                    sessionVariables.add(sql);
+                    for (Session session : sessions) {
+                        if (session != null) {
+                            session.run(null, sql, false);
+                        }
+                    }
+                    if (serial != null) {
+                        serial.run(null, sql, false);
+                    }
+                    continue;
+                }
+
+                if (s.route == Route.UNLOCK && lastTable != null) {
+                    lastTable.run(null, sql, false);
+                    continue;
+                }
+
+                if (s.route == Route.TABLE) {
+                    if (serial != null) {
+                        serial.finish();
+                        serial = null;
+                    }
+
+                    final String key = s.database + "." + s.table;
+                    Integer index = tables.get(key);
+                    if (index == null) {
+                        index = tables.size() % sessions.length;
+                        tables.put(key, index);
+                    }
+                    if (sessions[index] == null) {
+                        sessions[index] = new Session("fixture-loader-" + index, sessionVariables, counts.rows);
+                    }
+                    lastTable = sessions[index];
+                    lastTable.run(database, sql, s.counted);
+                    continue;
+                }
+
+                finishAll(sessions);
+                lastTable = null;
+                if (serial == null) {
+                    serial = new Session("fixture-loader-serial", sessionVariables, counts.rows);
+                }
+                serial.run(database, sql, false);
+            }
+
+            finishAll(sessions);
+            if (serial != null) {
+                serial.finish();
+            }
+        } catch (IOException e) {
+            destroyAll(sessions, serial);
+            throw new MySqlProcessException("Unable to read " + file + ".", e);
+        } catch (RuntimeException e) {
+            destroyAll(sessions, serial);
+            throw e;
+        }
+    }
+
+    private void loadCsvFiles(final LoadSpec spec, Counts counts) {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, spec.getParallelism()),
+            namedDaemons("fixture-loader"));
+        final List<Future<Long>> futures = list();
+        final List<MySqlProcess> processes = new CopyOnWriteArrayList<>();
+
+        for (final LoadSpec.CsvFile csv : spec.getCsvFiles()) {
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override public Long call() {
+                    final AtomicLong rows = new AtomicLong();
+                    final MySqlProcess p = startMySqlProcess(client("--local-infile=1"));
+                    processes.add(p);
+                    p.streamStdOut(utf8, rowCounter(rows))
+                        .writeStdIn("SET unique_checks = 0, foreign_key_checks = 0;\n"
+                            + "LOAD DATA LOCAL INFILE " + quote(csv.file.toAbsolutePath().toString())
+                            + " INTO TABLE " + quoteName(csv.database, csv.table)
+                            + " FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"'"
+                            + " LINES TERMINATED BY '\\n'"
+                            + (spec.hasCsvHeader() ? " IGNORE 1 LINES" : "") + ";\n"
+                            + "SELECT ROW_COUNT();\n", utf8)
+                        .waitForSuccessfulCompletion();
+                    return rows.get();
+                }
+            }));
+        }
+        executor.shutdown();
+
+        try {
+            for (Future<Long> f : futures) {
+                counts.rows.addAndGet(f.get());
+                counts.statements++;
+            }
+        } catch (InterruptedException e) {
+            cancel(executor, processes);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            cancel(executor, processes);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MySqlProcessException("Failed to load CSV files.", e.getCause());
+        }
+    }
+
+    private static void cancel(ExecutorService executor, List<MySqlProcess> processes) {
+        executor.shutdownNow();
+        for (MySqlProcess p : processes) {
+            p.destroy();
+        }
+    }
+
+    private ProcessBuilder client(String... args) {
+        final List<String> result = list(
+            "--no-defaults",
+            "--socket=" + socket,
+            "--user=root",
+            "--default-character-set=utf8",
+            "--max-allowed-packet=" + maxAllowedPacket,
+            "--batch",
+            "--skip-column-names");
+        result.addAll(Arrays.asList(args));
+        return newProcessBuilder(mysql, result);
+    }
+
+    private static Reader openSqlFile(Path file) throws IOException {
+        final InputStream in = newInputStream(file);
+        try {
+            return new InputStreamReader(file.getFileName().toString().endsWith(".gz")
+                ? new GZIPInputStream(in, 64 * 1024)
+                : in, latin1);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the ISO-8859-1 representation of the UTF-8 bytes of a string, to be written along with
+     * the statements of a file.
+     */
+    private static String transparent(String str) {
+        return new String(str.getBytes(utf8), latin1);
+    }
+
+    private static ProcessPump.LineSink rowCounter(final AtomicLong rows) {
+        return new ProcessPump.LineSink() {
+            @Override public void line(String line) {
+                try {
+                    rows.addAndGet(Math.max(0, Long.parseLong(line.trim())));
+                } catch (NumberFormatException e) {
+                    // not a row count
+                }
+            }
+        };
+    }
+
+    private static void finishAll(Session[] sessions) {
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] != null) {
+                sessions[i].finish();
+                sessions[i] = null;
+            }
+        }
+    }
+
+    private static void destroyAll(Session[] sessions, Session serial) {
+        for (Session s : sessions) {
+            if (s != null) {
+                s.destroy();
+            }
+        }
+        if (serial != null) {
+            serial.destroy();
+        }
+    }
+
+    private static final class Counts {
+        long statements;
+        final AtomicLong rows = new AtomicLong();
+    }
+
+    /**
+     * A {@code mysql} client session, whose statements are written by a thread of its own from a
+     * bounded queue, so that reading a file only blocks once a session falls behind.
+     */
+    private final class Session {
+
+        private final String end = new String("end");
+        private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(queuedStatements);
+        private final CountDownLatch written = new CountDownLatch(1);
+        private final MySqlProcess p;
+        private String database;
+        private int uncommitted;
+        private volatile IOException failure;
+
+
+        Session(String name, Collection<String> sessionVariables, AtomicLong rows) {
+            p = startMySqlProcess(client()).streamStdOut(latin1, rowCounter(rows));
+
+            startNamedDaemon(name, new Runnable() {
+                @Override public void run() {
+                    try (Writer w = new BufferedWriter(new OutputStreamWriter(p.stdIn(), latin1),
+                            64 * 1024)) {
+                        String sql;
+                        while ((sql = queue.take()) != end) {
+                            w.write(sql);
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        written.countDown();
+                    }
+                }
+            });
+
+            submit("SET unique_checks = 0, foreign_key_checks = 0, autocommit = 0;\n");
+            for (String sql : sessionVariables) {
+                run(null, sql, false);
+            }
+        }
+
+
+        /**
+         * Executes a statement in the session, after selecting {@code database} unless it's
+         * {@code null}.
+         */
+        void run(String database, String sql, boolean counted) {
+            if (database != null && !database.equals(this.database)) {
+                submit("USE " + quoteName(database) + ";\n");
+                this.database = database;
+            }
+
+            // statements containing the default delimiter are delimited the way mysqldump does
+            submit(sql.indexOf(';') == -1
+                ? sql + ";\n"
+                : "DELIMITER $jmysqld$\n" + sql + "\n$jmysqld$\nDELIMITER ;\n");
+
+            if (counted) {
+                submit("SELECT ROW_COUNT();\n");
+            }
+            if (++uncommitted >= commitInterval) {
+                submit("COMMIT;\n");
+                uncommitted = 0;
+            }
+        }
+
+        /**
+         * Commits, and waits for all statements of the session to complete.
+         *
+         * @throws MySqlProcessException if any statement failed
+         */
+        void finish() {
+            submit("COMMIT;\n");
+            submit(end);
+            await(written);
+            p.waitForSuccessfulCompletion();
+            if (failure != null) {
+                throw new MySqlProcessException("Unable to write statements to " + mysql + ".", failure);
+            }
+        }
+
+        void destroy() {
+            p.destroy();
+            queue.clear();
+            queue.offer(end);
+        }
+
+        private void submit(final String sql) {
+            execute(new Interruptible() {
+                @Override public void run() throws InterruptedException {
+                    while (!queue.offer(sql, 100, TimeUnit.MILLISECONDS)) {
+                        if (written.getCount() == 0) {
+                            // the client exited, most likely due to a failing statement
+                            p.waitForSuccessfulCompletion();
+                            throw new MySqlProcessException("Unable to write statements to "
+                                + mysql + ".", failure);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package net.hulte.jmysqld;
+
+import java.io.*;
+import java.net.*;
+
+/**
+ * Probes whether a MySQL server is accepting connections, by connecting to it and reading the
+ * initial packet sent by the server. The connection is closed as soon as the packet has been read,
+ * without logging in, so probing takes well below a millisecond on a local server.
+ */
+final class HandshakeProbe {
+
+    private static final int protocolVersion = 10;
+    private static final int errorPacket = 0xff;
+
+
+    /**
+     * Returns {@code true} if a MySQL server accepting connections is listening to a port on the
+     * loopback interface. A server rejecting the connection with an error packet, e.g. due to too
+     * many connections, is considered to be alive.
+     */
+    static boolean isListening(int port, int timeoutMillis) {
+        try (Socket s = new Socket()) {
+            s.setSoTimeout(timeoutMillis);
+            s.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), timeoutMillis);
+
+            final DataInputStream in = new DataInputStream(s.getInputStream());
+            final byte[] header = new byte[5];
+            in.readFully(header);
+
+            final int payloadLength = (header[0] & 0xff) | (header[1] & 0xff) << 8 | (header[2] & 0xff) << 16;
+            final int firstByte = header[4] & 0xff;
+
+            return payloadLength > 0 && (firstByte == protocolVersion || firstByte == errorPacket);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private HandshakeProbe() {}
+}
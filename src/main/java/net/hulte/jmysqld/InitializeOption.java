@@ -0,0 +1,18 @@
+package net.hulte.jmysqld;
+
+import java.nio.file.Path;
+
+/**
+ * Options affecting how a data directory is initialized, see
+ * {@link MySqlServer#initializeDataDirectory(Path, InitializeOption...)}.
+ */
+public enum InitializeOption {
+
+    /**
+     * Skips the parts of the installation that aren't needed to start the server, and installs
+     * without flushing to disk, e.g. with the InnoDB doublewrite buffer disabled. Host names aren't
+     * resolved, so the root user is only created for {@code localhost} and loopback addresses, and
+     * on MySQL 8.0 no binary log is written while installing.
+     */
+    SKIP_OPTIONAL_STEPS
+}
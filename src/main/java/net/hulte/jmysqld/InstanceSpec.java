@@ -1,9 +1,10 @@
 package net.hulte.jmysqld;
 
+import static java.nio.file.Files.isDirectory;
 import static net.hulte.jmysqld.Utilities.*;
 
 import java.nio.file.Path;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Specifications used to start a new instance of the MySQL server.
@@ -13,14 +14,65 @@ public final class InstanceSpec {
     public enum Option {
 
         /**
-         * Installs a shutdown-hook used to shut down the instance when the JVM terminates.
+         * Shuts down the instance when the JVM terminates. All such instances are shut down in
+         * parallel by a single shutdown-hook, and are killed if they haven't exited within a deadline
+         * of 10 seconds, or the number of milliseconds given by the {@code jmysqld.shutdownTimeout}
+         * system property.
          */
-        AUTO_SHUTDOWN
+        AUTO_SHUTDOWN,
+
+        /**
+         * Launches {@code bin/mysqld} directly, instead of through the {@code mysqld_safe} wrapper
+         * script. The server starts faster, and the launched process is the server itself rather than
+         * a script restarting the server if it crashes. Note that {@code mysqld} doesn't read the
+         * {@code [mysqld_safe]} group of a {@code defaultsFile}.
+         */
+        DIRECT_LAUNCH,
+
+        /**
+         * Listens for TCP/IP connections on a free port chosen when the instance is started, unless a
+         * {@code port} is specified. The chosen port is available from
+         * {@link MySqlServerInstance#getPort()}.
+         */
+        AUTO_PORT,
+
+        /**
+         * Runs the instance in a throw-away copy of its data directory, placed on a RAM-backed file
+         * system (see {@code ramDisk}), using server options that trade durability for throughput,
+         * e.g. not flushing the InnoDB log at each commit. The options are chosen based on the server
+         * version. The data directory itself is left untouched, except for the error-log, and any
+         * changes are lost when the instance shuts down.
+         */
+        EPHEMERAL,
+
+        /**
+         * Makes the instance disposable, i.e. {@link MySqlServerInstance#shutdown()} kills the server
+         * rather than shutting it down cleanly, and returns without waiting for it to exit. The data
+         * directory is deleted in the background once the server has exited. Only suitable for
+         * throw-away data.
+         */
+        DISPOSABLE,
+
+        /**
+         * Shares the instance between all JVMs on the host. If an instance is already running in the
+         * data directory, it's attached to rather than started, provided it was started by the same
+         * distribution and specification. The instance keeps running when the JVM that started it
+         * exits, and is shut down by a watchdog process once no JVM has been attached to it for
+         * {@code sharedIdleTimeout}. {@link MySqlServerInstance#shutdown()} detaches from the instance,
+         * as does the JVM when it exits. Can't be combined with {@link #EPHEMERAL} or
+         * {@link #DISPOSABLE}.
+         */
+        SHARED
     }
 
     private final Set<Option> options = set();
     private Integer port;
     private Path defaultsFile;
+    private Path ramDisk;
+    private ErrorLogListener errorLogListener;
+    private long sharedIdleTimeoutMillis = 5 * 60 * 1000;
+    private Long memoryBudget;
+    private final Map<String, String> serverOptions = new LinkedHashMap<>();
 
 
     public InstanceSpec() {
@@ -37,8 +89,9 @@ public final class InstanceSpec {
     }
 
     /**
-     * The port number that the server should use when listening for TCP/IP connections. If neither the port
-     * nor a {@code defaultsFile} is provided, the instance will be started with {@code --skip-networking}.
+     * The port number that the server should use when listening for TCP/IP connections. If neither the port,
+     * {@link Option#AUTO_PORT} nor a {@code defaultsFile} is provided, the instance will be started with
+     * {@code --skip-networking}.
      */
     InstanceSpec port(Integer port) {
         this.port = port;
@@ -62,5 +115,120 @@ public final class InstanceSpec {
     Path getDefaultsFile() {
         return defaultsFile;
     }
-}
 
+    /**
+     * The directory, on a RAM-backed file system, in which {@link Option#EPHEMERAL} instances are run.
+     * Defaults to {@code /dev/shm} if it exists, otherwise {@code java.io.tmpdir}.
+     */
+    InstanceSpec ramDisk(Path ramDisk) {
+        this.ramDisk = ramDisk;
+        return this;
+    }
+
+    Path getRamDisk() {
+        if (ramDisk != null) {
+            return ramDisk;
+        }
+
+        final Path shm = path("/dev/shm");
+        return isDirectory(shm) ? shm : tmpDir();
+    }
+
+    /**
+     * A listener receiving the events written to the error-log while the instance starts and runs.
+     */
+    InstanceSpec errorLogListener(ErrorLogListener errorLogListener) {
+        this.errorLogListener = errorLogListener;
+        return this;
+    }
+
+    ErrorLogListener getErrorLogListener() {
+        return errorLogListener;
+    }
+
+    /**
+     * The number of milliseconds that a {@link Option#SHARED} instance keeps running once no JVM is
+     * attached to it. Defaults to 5 minutes.
+     */
+    InstanceSpec sharedIdleTimeout(long millis) {
+        this.sharedIdleTimeoutMillis = millis;
+        return this;
+    }
+
+    long getSharedIdleTimeout() {
+        return sharedIdleTimeoutMillis;
+    }
+
+    /**
+     * The number of bytes of memory that the server should fit in, at least 32 MB. The budget is turned
+     * into a consistent set of server options for the version of the server, sizing the InnoDB buffer
+     * pool, the other buffers and caches and the number of connections, and disabling the performance
+     * schema. The server itself needs memory on top of its buffers, so the budget is approximate, and
+     * {@link MySqlServerInstance#getResidentSetSize()} shows the memory actually used. Options given
+     * explicitly, e.g. by {@link #bufferPoolSize(long)}, take precedence over those of the budget.
+     */
+    InstanceSpec memoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+        return this;
+    }
+
+    Long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * The size in bytes of the InnoDB buffer pool, {@code innodb_buffer_pool_size}.
+     */
+    InstanceSpec bufferPoolSize(long bytes) {
+        return serverOption("innodb_buffer_pool_size", String.valueOf(bytes));
+    }
+
+    /**
+     * The size in bytes of each InnoDB log file, {@code innodb_log_file_size}. Not supported before
+     * MySQL 5.6.8, which refuses to start if the size of the log files has changed.
+     */
+    InstanceSpec logFileSize(long bytes) {
+        return serverOption("innodb_log_file_size", String.valueOf(bytes));
+    }
+
+    /**
+     * The maximum number of concurrent client connections, {@code max_connections}.
+     */
+    InstanceSpec maxConnections(int maxConnections) {
+        return serverOption("max_connections", String.valueOf(maxConnections));
+    }
+
+    /**
+     * The number of threads kept for reuse by new connections, {@code thread_cache_size}.
+     */
+    InstanceSpec threadCacheSize(int threadCacheSize) {
+        return serverOption("thread_cache_size", String.valueOf(threadCacheSize));
+    }
+
+    /**
+     * The number of open tables cached by the server, {@code table_open_cache}.
+     */
+    InstanceSpec tableOpenCache(int tableOpenCache) {
+        return serverOption("table_open_cache", String.valueOf(tableOpenCache));
+    }
+
+    /**
+     * An arbitrary server option, e.g. {@code serverOption("character-set-server", "utf8")}. Flags
+     * such as {@code skip-name-resolve} have a {@code null} value. Dashes and underscores are
+     * interchangeable in the name.
+     *
+     * <p>Server options are written to an option file generated for the instance, along with the
+     * options of any {@link Option#EPHEMERAL} profile and {@code memoryBudget}. Options given here take
+     * precedence over those of the profile and the budget, which in turn take precedence over the
+     * {@code defaultsFile}. Option values
+     * known to be limited by the server version are validated when the instance is started.</p>
+     */
+    InstanceSpec serverOption(String name, String value) {
+        serverOptions.put(name.trim().replace('_', '-'), value);
+        return this;
+    }
+
+    Map<String, String> getServerOptions() {
+        return Collections.unmodifiableMap(serverOptions);
+    }
+}
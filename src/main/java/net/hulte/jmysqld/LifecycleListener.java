@@ -0,0 +1,19 @@
+package net.hulte.jmysqld;
+
+import java.nio.file.Path;
+
+/**
+ * Receives timed lifecycle events from a {@link MySqlServer}, e.g. to find out where the time
+ * spent starting and stopping instances goes. Listeners may be invoked concurrently from several
+ * threads, and shouldn't block.
+ */
+public interface LifecycleListener {
+
+    /**
+     * @param dataDir the data directory of the instance
+     * @param phase the completed phase
+     * @param elapsedNanos the time the phase took
+     */
+    void onPhase(Path dataDir, LifecyclePhase phase, long elapsedNanos);
+
+}
@@ -0,0 +1,41 @@
+package net.hulte.jmysqld;
+
+/**
+ * The phases in the life of an instance reported to a {@link LifecycleListener}. Each phase is
+ * reported when it completes, along with the time it took.
+ */
+public enum LifecyclePhase {
+
+    /**
+     * A data directory was initialized, from a template or by running the installer.
+     */
+    INITIALIZE,
+
+    /**
+     * The server process was spawned. Includes preparing the data directory, option file and
+     * resources of the instance.
+     */
+    PROCESS_SPAWN,
+
+    /**
+     * The server created its socket file, i.e. started accepting connections. Measured from the
+     * spawn of the process, so includes the {@code mysqld_safe} handoff and InnoDB recovery.
+     */
+    FIRST_CONNECT,
+
+    /**
+     * The server answered a probe or ping, measured from the socket file being created.
+     */
+    READY,
+
+    /**
+     * The server acknowledged a shutdown request.
+     */
+    SHUTDOWN_REQUESTED,
+
+    /**
+     * The server process exited, measured from the shutdown request, or from the spawn of the
+     * process if it exited by itself.
+     */
+    PROCESS_EXITED
+}
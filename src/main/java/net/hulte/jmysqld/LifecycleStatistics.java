@@ -0,0 +1,159 @@
+package net.hulte.jmysqld;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * A {@link LifecycleListener} aggregating the time spent in each phase into histograms, which may be
+ * exposed through JMX. Durations are bucketed by powers of two milliseconds, so recording is cheap
+ * and lock-free, while percentiles are approximate.
+ *
+ * <pre>
+ * final LifecycleStatistics stats = new LifecycleStatistics();
+ * stats.register("ci");
+ * server.addLifecycleListener(stats);
+ * </pre>
+ */
+public final class LifecycleStatistics implements LifecycleListener, LifecycleStatisticsMXBean {
+
+    private final Map<LifecyclePhase, Histogram> histograms = new EnumMap<>(LifecyclePhase.class);
+
+
+    public LifecycleStatistics() {
+        for (LifecyclePhase phase : LifecyclePhase.values()) {
+            histograms.put(phase, new Histogram());
+        }
+    }
+
+
+    /**
+     * Registers the statistics with the platform MBean server, named
+     * {@code net.hulte.jmysqld:type=LifecycleStatistics,name=<name>}.
+     *
+     * @throws IllegalStateException if unable to register
+     */
+    public ObjectName register(String name) {
+        try {
+            final ObjectName result = new ObjectName("net.hulte.jmysqld:type=LifecycleStatistics,name="
+                + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, result);
+            return result;
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register lifecycle statistics as " + name + ".", e);
+        }
+    }
+
+    @Override
+    public void onPhase(Path dataDir, LifecyclePhase phase, long elapsedNanos) {
+        histograms.get(phase).record(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        final Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<LifecyclePhase, Histogram> h : reported()) {
+            result.put(h.getKey().name(), h.getValue().count.get());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMillis() {
+        final Map<String, Double> result = new TreeMap<>();
+        for (Map.Entry<LifecyclePhase, Histogram> h : reported()) {
+            result.put(h.getKey().name(), (double) h.getValue().sum.get() / h.getValue().count.get());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getMaxMillis() {
+        final Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<LifecyclePhase, Histogram> h : reported()) {
+            result.put(h.getKey().name(), h.getValue().max.get());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getMedianMillis() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public Map<String, Long> getP99Millis() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram h : histograms.values()) {
+            h.reset();
+        }
+    }
+
+    private Map<String, Long> percentile(double p) {
+        final Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<LifecyclePhase, Histogram> h : reported()) {
+            result.put(h.getKey().name(), h.getValue().percentile(p));
+        }
+        return result;
+    }
+
+    private List<Map.Entry<LifecyclePhase, Histogram>> reported() {
+        final List<Map.Entry<LifecyclePhase, Histogram>> result = new ArrayList<>();
+        for (Map.Entry<LifecyclePhase, Histogram> h : histograms.entrySet()) {
+            if (h.getValue().count.get() > 0) {
+                result.add(h);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Bucket {@code i} counts durations below {@code 2^i} ms, but not below {@code 2^(i-1)} ms.
+     */
+    private static final class Histogram {
+
+        final AtomicLongArray buckets = new AtomicLongArray(64);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void record(long millis) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(millis));
+            count.incrementAndGet();
+            sum.addAndGet(millis);
+
+            long current = max.get();
+            while (millis > current && !max.compareAndSet(current, millis)) {
+                current = max.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        long percentile(double p) {
+            final long rank = (long) Math.ceil(p * count.get());
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(1L << i, max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+}
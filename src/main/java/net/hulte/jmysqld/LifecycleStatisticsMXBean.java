@@ -0,0 +1,29 @@
+package net.hulte.jmysqld;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link LifecycleStatistics}. All maps are keyed by the name of the
+ * {@link LifecyclePhase}, and only contain the phases that have been reported.
+ */
+public interface LifecycleStatisticsMXBean {
+
+    Map<String, Long> getCounts();
+
+    Map<String, Double> getMeanMillis();
+
+    Map<String, Long> getMaxMillis();
+
+    /**
+     * Returns the median, rounded up to the nearest power of two.
+     */
+    Map<String, Long> getMedianMillis();
+
+    /**
+     * Returns the 99th percentile, rounded up to the nearest power of two.
+     */
+    Map<String, Long> getP99Millis();
+
+    void reset();
+
+}
@@ -0,0 +1,104 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.Utilities.*;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Specifications of the fixtures loaded into a running instance by
+ * {@link MySqlServerInstance#load(LoadSpec)}.
+ */
+public final class LoadSpec {
+
+    /**
+     * A CSV file loaded into a table.
+     */
+    static final class CsvFile {
+        final Path file;
+        final String database;
+        final String table;
+
+        CsvFile(Path file, String database, String table) {
+            this.file = file;
+            this.database = database;
+            this.table = table;
+        }
+    }
+
+    private final List<Path> sqlFiles = list();
+    private final List<CsvFile> csvFiles = list();
+    private String database;
+    private int parallelism = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private boolean csvHeader;
+
+
+    public LoadSpec() {
+    }
+
+
+    /**
+     * A file of SQL statements, e.g. a dump created by {@code mysqldump}, which is gzip-compressed if
+     * its name ends with {@code .gz}. Files are loaded in the order given, after any CSV files.
+     * Statements are delimited by {@code ;}, or by the delimiter set by a {@code DELIMITER} command.
+     */
+    LoadSpec sqlFile(Path file) {
+        sqlFiles.add(file);
+        return this;
+    }
+
+    List<Path> getSqlFiles() {
+        return sqlFiles;
+    }
+
+    /**
+     * A CSV file loaded into an existing table using {@code LOAD DATA LOCAL INFILE}. Fields are
+     * separated by {@code ,} and optionally enclosed by {@code "}, and lines are terminated by
+     * {@code \n}.
+     */
+    LoadSpec csvFile(Path file, String database, String table) {
+        csvFiles.add(new CsvFile(file, database, table));
+        return this;
+    }
+
+    List<CsvFile> getCsvFiles() {
+        return csvFiles;
+    }
+
+    /**
+     * Skips the first line of each CSV file. Defaults to {@code false}.
+     */
+    LoadSpec csvHeader(boolean csvHeader) {
+        this.csvHeader = csvHeader;
+        return this;
+    }
+
+    boolean hasCsvHeader() {
+        return csvHeader;
+    }
+
+    /**
+     * The database used by SQL files until they select one of their own with {@code USE}.
+     */
+    LoadSpec database(String database) {
+        this.database = database;
+        return this;
+    }
+
+    String getDatabase() {
+        return database;
+    }
+
+    /**
+     * The maximum number of connections used to load tables in parallel. Defaults to the number of
+     * processors, but at most 4.
+     */
+    LoadSpec parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+}
@@ -0,0 +1,47 @@
+package net.hulte.jmysqld;
+
+/**
+ * Statistics of the fixtures loaded by {@link MySqlServerInstance#load(LoadSpec)}.
+ */
+public final class LoadStatistics {
+
+    private final long statements;
+    private final long rows;
+    private final long millis;
+
+
+    LoadStatistics(long statements, long rows, long millis) {
+        this.statements = statements;
+        this.rows = rows;
+        this.millis = millis;
+    }
+
+
+    /**
+     * Returns the number of SQL statements executed, including one for each CSV file.
+     */
+    public long getStatements() {
+        return statements;
+    }
+
+    /**
+     * Returns the number of rows inserted.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public double getRowsPerSecond() {
+        return rows * 1000.0 / Math.max(1, millis);
+    }
+
+    @Override
+    public String toString() {
+        return statements + " statements, " + rows + " rows in " + millis + " ms ("
+            + Math.round(getRowsPerSecond()) + " rows/s)";
+    }
+}
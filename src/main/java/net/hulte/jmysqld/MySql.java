@@ -16,6 +16,38 @@ public final class MySql {
         return new BinaryDistributionMySqlServer(distPath);
     }
 
+    /**
+     * Creates a {@link MySqlServer} based on a path containing a binary distribution of MySQL, which
+     * keeps reusable state in a cache directory. Data directories are initialized by cloning a pristine
+     * template from the cache, which is only installed the first time it's needed and whenever the
+     * distribution changes. The version and supported options of the server are cached as well, so
+     * that {@code mysqld} isn't forked to find out. The cache directory may be shared by several JVMs.
+     *
+     * @throws IllegalArgumentException if {@code distPath} does not contain the MySQL binaries
+     */
+    public static MySqlServer mySqlServerFromBinaryDistribution(Path distPath, Path cacheDir) {
+        return new BinaryDistributionMySqlServer(distPath, cacheDir);
+    }
+
+    /**
+     * Creates a {@link MySqlServer} based on a binary distribution of MySQL in a local tar archive,
+     * e.g. {@code mysql-5.5.27-linux2.6-x86_64.tar.gz}. The archive is extracted into the cache
+     * directory the first time it's used, and the extracted distribution is reused as long as the
+     * archive is unchanged. Archives compressed with gzip or xz are supported, the latter by forking
+     * {@code xz}. The cache directory is used like that of
+     * {@link #mySqlServerFromBinaryDistribution(Path, Path)}, and may be shared by several JVMs.
+     *
+     * @param minimal whether to extract only the files needed to run the server, leaving out e.g.
+     *      the test suite and documentation
+     * @throws IllegalArgumentException if the archive doesn't exist, or doesn't contain the MySQL
+     *      binaries
+     * @throws MySqlProcessException if unable to extract the archive
+     */
+    public static MySqlServer mySqlServerFromArchive(Path archive, Path cacheDir, boolean minimal) {
+        final Path distPath = new DistributionCache(cacheDir).extract(archive, minimal);
+        return new BinaryDistributionMySqlServer(distPath, cacheDir);
+    }
+
     private MySql() {}
 }
 
@@ -0,0 +1,115 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.MySqlProcess.startMySqlProcess;
+import static net.hulte.jmysqld.Utilities.*;
+
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Executes SQL against a running instance using the {@code mysql} command-line client of the
+ * distribution, connecting as root through the Unix socket of the instance.
+ */
+final class MySqlClient {
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+
+    private final Path mysql;
+    private final Path socket;
+
+
+    MySqlClient(Path mysql, Path socket) {
+        this.mysql = mysql;
+        this.socket = socket;
+    }
+
+
+    /**
+     * Executes one or more SQL statements, returning the rows of all result sets in order. Values
+     * are returned unescaped, and SQL {@code NULL} is returned as the string {@code NULL}.
+     *
+     * @throws MySqlProcessException if any statement fails
+     */
+    List<String[]> execute(String sql) {
+        final MySqlProcess p = startMySqlProcess(newProcessBuilder(mysql,
+                "--no-defaults",
+                "--socket=" + socket,
+                "--user=root",
+                "--default-character-set=utf8",
+                "--batch",
+                "--skip-column-names"))
+            .writeStdIn(sql, utf8);
+
+        final String output = p.readStdOut(utf8);
+        p.waitForSuccessfulCompletion();
+        return parse(output);
+    }
+
+    /**
+     * Parses the output of the client in batch mode, one row per line, keeping empty values. Only
+     * the newline ending the last row is stripped, since a row may end in empty values.
+     */
+    static List<String[]> parse(String output) {
+        final List<String[]> result = list();
+        if (output.isEmpty()) {
+            return result;
+        }
+
+        final String rows = output.endsWith("\n") ? output.substring(0, output.length() - 1) : output;
+        for (String line : rows.split("\n", -1)) {
+            final String[] values = line.split("\t", -1);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = unescape(values[i]);
+            }
+            result.add(values);
+        }
+
+        return result;
+    }
+
+    /**
+     * Quotes an identifier, e.g. the name of a database or table.
+     */
+    static String quoteName(String name) {
+        return "`" + name.replace("`", "``") + "`";
+    }
+
+    static String quoteName(String schema, String name) {
+        return quoteName(schema) + "." + quoteName(name);
+    }
+
+    /**
+     * Quotes a string literal.
+     */
+    static String quote(String str) {
+        return "'" + str.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    /**
+     * Reverts the escaping applied to values by the client in batch mode.
+     */
+    private static String unescape(String value) {
+        if (value.indexOf('\\') == -1) {
+            return value;
+        }
+
+        final StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c != '\\' || i == value.length() - 1) {
+                result.append(c);
+                continue;
+            }
+
+            final char next = value.charAt(++i);
+            switch (next) {
+                case 'n': result.append('\n'); break;
+                case 't': result.append('\t'); break;
+                case '0': result.append('\0'); break;
+                default: result.append(next);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,244 @@
+package net.hulte.jmysqld;
+
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import org.slf4j.Logger;
+
+/**
+ * A pool of MySQL server instances started in the background, so that an instance can be leased
+ * without waiting for the server to start.
+ *
+ * <p>Each pooled instance is started in a fresh data directory below a base directory owned by the
+ * pool, and a {@linkplain MySqlServerInstance#checkpoint() checkpoint} is recorded as soon as it has
+ * started. Released instances are reset to this checkpoint in the background and returned to the pool,
+ * or shut down and replaced by new ones if they can't be reset.</p>
+ */
+public final class MySqlInstancePool implements AutoCloseable {
+
+    private final Logger logger = getLogger(getClass());
+    private final MySqlServer server;
+    private final Path baseDir;
+    private final InstanceSpec instanceSpec;
+    private final PoolSpec poolSpec;
+    private final ExecutorService executor;
+
+    private final Deque<MySqlServerInstance> idle = new ArrayDeque<>();
+    private final Set<MySqlServerInstance> leased = set();
+    private int pending;
+    private int failures;
+    private Throwable lastFailure;
+    private boolean closed;
+
+
+    /**
+     * Creates a pool and starts filling it in the background.
+     *
+     * @param server the server used to initialize and start the pooled instances
+     * @param baseDir the directory below which the data directories of the instances are created
+     * @param instanceSpec specifications of how to launch each instance
+     * @param poolSpec specifications of the pool
+     * @throws IllegalArgumentException if the pool specification is inconsistent, or if the pool may
+     *      start more than one instance on the same port
+     */
+    public MySqlInstancePool(MySqlServer server, Path baseDir, InstanceSpec instanceSpec, PoolSpec poolSpec) {
+        if (poolSpec.getSize() < 1 || poolSpec.getMinIdle() > poolSpec.getSize()
+                || poolSpec.getMaxTotal() < poolSpec.getSize() || poolSpec.getRefillConcurrency() < 1) {
+            throw new IllegalArgumentException("Expected 1 <= size, minIdle <= size <= maxTotal and "
+                + "1 <= refillConcurrency.");
+        }
+        if (instanceSpec.getPort() != null && poolSpec.getMaxTotal() > 1) {
+            throw new IllegalArgumentException("Pooled instances can't share port " + instanceSpec.getPort() + ".");
+        }
+
+        this.server = server;
+        this.baseDir = baseDir.toAbsolutePath();
+        this.instanceSpec = instanceSpec;
+        this.poolSpec = poolSpec;
+        this.executor = Executors.newFixedThreadPool(poolSpec.getRefillConcurrency(),
+            namedDaemons("mysqld-pool"));
+
+        synchronized (this) {
+            refill();
+        }
+    }
+
+
+    /**
+     * Leases an instance from the pool, waiting for one to be started if none are idle.
+     *
+     * @throws MySqlProcessException if the pool is unable to start new instances
+     * @throws IllegalStateException if the pool is closed
+     */
+    public synchronized MySqlServerInstance lease() {
+        final int failuresBefore = failures;
+
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("The pool is closed.");
+            }
+
+            final MySqlServerInstance i = idle.pollFirst();
+            if (i != null) {
+                leased.add(i);
+                refill();
+                return i;
+            }
+
+            if (failures > failuresBefore && pending == 0) {
+                throw new MySqlProcessException("Unable to start a pooled instance.", lastFailure);
+            }
+
+            refill();
+
+            execute(new Interruptible() {
+                @Override public void run() throws InterruptedException {
+                    MySqlInstancePool.this.wait();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns a leased instance to the pool. The instance is reset to the state it had when it was
+     * started in the background, or shut down and replaced by a new one if unable to reset it.
+     *
+     * @throws IllegalArgumentException if the instance isn't leased from this pool
+     */
+    public synchronized void release(final MySqlServerInstance instance) {
+        if (!leased.remove(instance)) {
+            throw new IllegalArgumentException(instance + " isn't leased from this pool.");
+        }
+
+        if (closed) {
+            discard(instance);
+            return;
+        }
+
+        pending++;
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                resetInstance(instance);
+            }
+        });
+    }
+
+    /**
+     * Closes the pool, shutting down all idle instances. Instances currently leased are shut down
+     * as they are released.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        while (!idle.isEmpty()) {
+            discard(idle.pollFirst());
+        }
+        executor.shutdown();
+        notifyAll();
+    }
+
+    /**
+     * Starts new instances until the pool holds {@code size} idle instances, provided the number of
+     * idle instances has dropped below {@code minIdle}.
+     */
+    private void refill() {
+        if (closed || idle.size() + pending >= poolSpec.getMinIdle()) {
+            return;
+        }
+
+        while (idle.size() + pending < poolSpec.getSize() && total() < poolSpec.getMaxTotal()) {
+            pending++;
+            executor.execute(new Runnable() {
+                @Override public void run() {
+                    startInstance();
+                }
+            });
+        }
+    }
+
+    private void startInstance() {
+        MySqlServerInstance instance = null;
+        Throwable failure = null;
+
+        try {
+            final Path dataDir = baseDir.resolve(randomUUID().toString());
+            server.initializeDataDirectory(dataDir);
+            instance = server.start(dataDir, instanceSpec);
+            instance.checkpoint();
+        } catch (RuntimeException e) {
+            logger.warn("Unable to start a pooled instance.", e);
+            failure = e;
+            if (instance != null) {
+                discard(instance);
+                instance = null;
+            }
+        }
+
+        synchronized (this) {
+            pending--;
+            if (failure != null) {
+                failures++;
+                lastFailure = failure;
+            } else if (closed) {
+                discard(instance);
+            } else {
+                idle.addLast(instance);
+            }
+            notifyAll();
+        }
+    }
+
+    private void resetInstance(MySqlServerInstance instance) {
+        boolean reset = false;
+        try {
+            instance.resetToCheckpoint();
+            reset = true;
+        } catch (RuntimeException e) {
+            logger.warn("Unable to reset pooled instance " + instance + ", discarding it.", e);
+        }
+
+        synchronized (this) {
+            pending--;
+            if (reset && !closed) {
+                idle.addLast(instance);
+            } else {
+                discard(instance);
+            }
+            notifyAll();
+        }
+    }
+
+    private synchronized void discard(final MySqlServerInstance instance) {
+        final Runnable shutdown = new Runnable() {
+            @Override public void run() {
+                try {
+                    instance.shutdown();
+                    deleteRecursively(instance.getDataDir());
+                } catch (RuntimeException | IOException e) {
+                    logger.warn("Unable to discard pooled instance " + instance + ".", e);
+                }
+            }
+        };
+
+        if (executor.isShutdown()) {
+            startNamedDaemon("mysqld-pool-discard-" + instance.getDataDir().getFileName(), shutdown);
+        } else {
+            executor.execute(shutdown);
+        }
+
+        refill();
+    }
+
+    private int total() {
+        return idle.size() + leased.size() + pending;
+    }
+}
@@ -1,22 +1,33 @@
 package net.hulte.jmysqld;
 
+import static net.hulte.jmysqld.ProcessPump.processPump;
 import static net.hulte.jmysqld.Utilities.*;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.*;
 import org.slf4j.Logger;
 
 /**
  * Provides a simple framework for working with the MySQL binaries. Wraps a regular {@link Process} by
  * exposing a more high-level API.
+ *
+ * <p>The stderr of the process is continously drained, keeping only its last
+ * {@value #tailChars} characters for diagnostics, so that a chatty process neither blocks on a full
+ * pipe nor costs more memory the longer it runs.</p>
  */
 final class MySqlProcess {
 
+    static final int tailChars = 16 * 1024;
+
     private final Process p;
     private final List<String> command;
-    private CountDownLatch logging;
+    private final TailBuffer stdErrTail = new TailBuffer(tailChars);
+    private final CountDownLatch stdErrDrained = new CountDownLatch(1);
+    private final List<CountDownLatch> streamsDrained = new CopyOnWriteArrayList<>();
+    private volatile TailBuffer stdOutTail;
 
 
     static MySqlProcess startMySqlProcess(ProcessBuilder pb) {
@@ -30,6 +41,9 @@ final class MySqlProcess {
     private MySqlProcess(Process p, List<String> command) {
         this.p = p;
         this.command = command;
+
+        processPump().drain(p, p.getErrorStream(), Charset.defaultCharset(), stdErrTail,
+            countDown(stdErrDrained));
     }
 
 
@@ -37,21 +51,38 @@ final class MySqlProcess {
      * Waits for the process to successfully complete.
      *
      * @throws MySqlProcessException if interrupted while waiting, or if the process exits
-     *      with an error code.
+     *      with an error code. The message holds the last part of stderr, and of stdout
+     *      if it's being streamed to a sink.
      */
     MySqlProcess waitForSuccessfulCompletion() {
         waitForCompletion();
-        try {
-            if (exitCode() != 0) {
-                throw new MySqlProcessException("Failed to run '"
-                    + command + "', exit-code: " + exitCode()
-                    + ", error: " + readText(p.getErrorStream()));
-            }
-
-            return this;
-        } catch (IOException e) {
-            throw new MySqlProcessException("Failed to run '" + command + "'.", e);
+        if (exitCode() != 0) {
+            throw failure();
         }
+
+        return this;
+    }
+
+    /**
+     * Returns a future that is completed once the process has exited and its streamed output has been
+     * flushed. The future fails like {@link #waitForSuccessfulCompletion()} if the process exits with
+     * an error code. It's completed off the shared thread that reaps processes, so dependent stages may
+     * block.
+     */
+    CompletableFuture<MySqlProcess> successfulCompletion() {
+        final CompletableFuture<MySqlProcess> result = new CompletableFuture<>();
+        onExit(() -> {
+            try {
+                if (exitCode() != 0) {
+                    result.completeExceptionally(failure());
+                } else {
+                    result.complete(this);
+                }
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return handedOff(result);
     }
 
     /**
@@ -68,17 +99,72 @@ final class MySqlProcess {
     }
 
     /**
-     * Returns the text written to stdout by the process.
+     * Returns the text written to stdout by the process. Not available if stdout is streamed
+     * to a sink.
      */
     String readStdOut() {
-        return readProcessStream(p.getInputStream());
+        try {
+            return readText(p.getInputStream());
+        } catch (IOException e) {
+            throw new MySqlProcessException("Unable to output from process.", e);
+        }
     }
 
     /**
-     * Returns the text written to stderr by the process.
+     * Returns the text written to stdout by the process as is, decoded using a specific charset. Not
+     * available if stdout is streamed to a sink.
+     */
+    String readStdOut(Charset charset) {
+        try {
+            return readUntrimmedText(p.getInputStream(), charset);
+        } catch (IOException e) {
+            throw new MySqlProcessException("Unable to output from process.", e);
+        }
+    }
+
+    /**
+     * Returns the last {@value #tailChars} characters written to stderr by the process, after the
+     * process has completed.
      */
     String readStdErr() {
-        return readProcessStream(p.getErrorStream());
+        waitForCompletion();
+        await(stdErrDrained);
+        return stdErrTail.toString().trim();
+    }
+
+    /**
+     * Starts a thread that writes text to the stdin of the process, and closes the stream
+     * afterwards. The text is written in the background so that the process never blocks
+     * on a full stdout while its input is being written.
+     */
+    MySqlProcess writeStdIn(final String text, final Charset charset) {
+        startNamedDaemon("stdin-writer-for-" + processName(), new Runnable() {
+            @Override public void run() {
+                try (Writer w = new OutputStreamWriter(p.getOutputStream(), charset)) {
+                    w.write(text);
+                } catch (IOException e) {
+                    processLogger().warn("Unable to write stdin.", e);
+                }
+            }
+        });
+
+        return this;
+    }
+
+    /**
+     * Returns the stdin of the process, for input that is written incrementally. The caller closes
+     * the stream once done.
+     */
+    OutputStream stdIn() {
+        return p.getOutputStream();
+    }
+
+    /**
+     * Returns the stdout of the process, for output that is read incrementally. Not available if
+     * stdout is streamed.
+     */
+    InputStream stdOut() {
+        return p.getInputStream();
     }
 
     /**
@@ -89,42 +175,89 @@ final class MySqlProcess {
     }
 
     /**
-     * Starts a thread that continously logs the text written to stdout by the process using a
-     * provided logger.
+     * Continously logs the text written to stdout by the process, using the shared
+     * {@link ProcessPump}.
      */
     MySqlProcess logStdOut() {
         final Logger logger = processLogger();
+        return streamStdOut(Charset.defaultCharset(), new ProcessPump.LineSink() {
+            @Override public void line(String line) {
+                logger.debug(line);
+            }
+        });
+    }
+
+    /**
+     * Continously passes the lines written to stdout by the process to a sink, using the shared
+     * {@link ProcessPump}. The last {@value #tailChars} characters are kept for diagnostics.
+     */
+    MySqlProcess streamStdOut(Charset charset, final ProcessPump.LineSink sink) {
+        final TailBuffer tail = new TailBuffer(tailChars);
+        final CountDownLatch drained = new CountDownLatch(1);
+        stdOutTail = tail;
+        streamsDrained.add(drained);
+
+        processPump().drain(p, p.getInputStream(), charset, new ProcessPump.LineSink() {
+            @Override public void line(String line) {
+                tail.line(line);
+                sink.line(line);
+            }
+        }, countDown(drained));
+
+        return this;
+    }
 
-        startNamedDaemon("stdout-logger-for-" + processName(), new Runnable() {
+    /**
+     * Continously passes the lines of another stream, e.g. a log file written by the process, to a
+     * sink for as long as the process runs. The stream is closed once the process has exited and
+     * everything written has been read.
+     */
+    MySqlProcess follow(InputStream in, Charset charset, ProcessPump.LineSink sink) {
+        final CountDownLatch drained = new CountDownLatch(1);
+        streamsDrained.add(drained);
+
+        processPump().drain(p, in, charset, sink, countDown(drained));
+        return this;
+    }
+
+    /**
+     * Asks the process to terminate, with {@code SIGTERM}.
+     */
+    void destroy() {
+        p.destroy();
+    }
+
+    /**
+     * Forcibly terminates the process with {@code SIGKILL}.
+     */
+    void destroyForcibly() {
+        p.destroyForcibly();
+    }
+
+    /**
+     * Invokes a callback, on a shared thread, once the process has exited and its streamed
+     * output has been flushed.
+     */
+    MySqlProcess onExit(final Runnable callback) {
+        processPump().onExit(p, new Runnable() {
             @Override public void run() {
-                logging = new CountDownLatch(1);
-                try {
-                    final BufferedReader r = asReader(p.getInputStream());
-                    String line = null;
-                    while (true) {
-                        line = r.readLine();
-                        if (line == null) {
-                            break;
-                        }
-                        logger.debug(line);
+                execute(new Interruptible() {
+                    @Override public void run() throws InterruptedException {
+                        flushLogs();
                     }
-                } catch (IOException e) {
-                    logger.warn("Unable to read stdout.", e);
-                } finally {
-                    logging.countDown();
-                }
+                });
+                callback.run();
             }
         });
-
         return this;
     }
 
-    private String readProcessStream(InputStream in) {
-        try {
-            return readText(in);
-        } catch (IOException e) {
-            throw new MySqlProcessException("Unable to output from process.", e);
-        }
+    private MySqlProcessException failure() {
+        final TailBuffer out = stdOutTail;
+        return new MySqlProcessException("Failed to run '"
+            + command + "', exit-code: " + exitCode()
+            + ", error: " + readStdErr()
+            + (out == null || out.total() == 0 ? "" : ", output: " + out.toString().trim()));
     }
 
     private Logger processLogger() {
@@ -137,9 +270,16 @@ final class MySqlProcess {
     }
 
     private void flushLogs() throws InterruptedException {
-        if (logging != null) {
-            logging.await();
+        for (CountDownLatch drained : streamsDrained) {
+            drained.await();
         }
     }
-}
 
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override public void run() {
+                latch.countDown();
+            }
+        };
+    }
+}
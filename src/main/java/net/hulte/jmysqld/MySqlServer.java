@@ -1,6 +1,8 @@
 package net.hulte.jmysqld;
 
 import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The MySQL server application.
@@ -28,6 +30,26 @@ public interface MySqlServer {
      */
     void initializeDataDirectory(Path dataDir);
 
+    /**
+     * Initializes a MySQL data directory using the fastest installer supported by the server version,
+     * i.e. {@code mysqld --initialize-insecure} as of MySQL 5.7.6, and the {@code mysql_install_db}
+     * script before that. Either way, the root user has no password.
+     *
+     * @param dataDir the data directory
+     * @param options options affecting the installation
+     * @throws MySqlProcessException
+     */
+    void initializeDataDirectory(Path dataDir, InitializeOption... options);
+
+    /**
+     * Initializes a MySQL data directory like {@link #initializeDataDirectory(Path)}, in the
+     * background.
+     *
+     * @param dataDir the data directory
+     * @return a future that is completed once the data directory is initialized
+     */
+    CompletableFuture<Void> initializeDataDirectoryAsync(Path dataDir);
+
     /**
      * Starts an instance of the MySQL server in a provided data directory. This
      * method blocks until the server is fully operational.
@@ -38,5 +60,72 @@ public interface MySqlServer {
      */
     MySqlServerInstance start(Path dataDir, InstanceSpec spec);
 
+    /**
+     * Starts an instance of the MySQL server like {@link #start(Path, InstanceSpec)}, without waiting
+     * for it to become operational, so that the caller can do other setup while the instance boots.
+     * The server process is spawned before this method returns, after which the instance is probed
+     * in the background. The future isn't completed on the threads probing the instances, so dependent
+     * stages may block, e.g. to shut the instance down.
+     *
+     * @param dataDir the data directory
+     * @param spec specifications of how to launch the new instance
+     * @return a future that is completed once the instance is fully operational, or fails with a
+     *      {@link MySqlProcessException} if unable to start
+     */
+    CompletableFuture<MySqlServerInstance> startAsync(Path dataDir, InstanceSpec spec);
+
+    /**
+     * Starts several instances of the MySQL server concurrently, each in its own data directory. This
+     * method blocks until all instances are fully operational.
+     *
+     * <p>If any instance fails to start, the instances already started are shut down and the failure is
+     * thrown without waiting for the rest, which are shut down in the background as soon as they've
+     * started.</p>
+     *
+     * @param instances the data directories and specifications of the instances to start
+     * @return the started instances, in the iteration order of {@code instances}
+     * @throws MySqlProcessException if unable to start any of the instances
+     */
+    List<MySqlServerInstance> startAll(Map<Path, InstanceSpec> instances);
+
+    /**
+     * Snapshots a data directory that has been shut down cleanly, equivalent to
+     * {@code snapshot(dataDir, snapshot, false)}.
+     *
+     * @throws MySqlProcessException if unable to snapshot
+     */
+    void snapshot(Path dataDir, Path snapshot);
+
+    /**
+     * Snapshots a data directory that has been shut down cleanly, e.g. after running a long migration,
+     * so that any number of data directories can be restored from it later on.
+     *
+     * <p>The snapshot is a directory holding a manifest of the files in the data directory and their
+     * SHA-256 digests. The contents of the files are stored once per digest, in a directory called
+     * {@code objects} next to the snapshot, so that files which are unchanged between the snapshots
+     * of a directory are shared by them.</p>
+     *
+     * @param dataDir the data directory
+     * @param snapshot the snapshot directory, which must not exist
+     * @param compress whether to gzip-compress the stored files, trading restore speed for disk space
+     * @throws IllegalStateException if the data directory wasn't shut down cleanly
+     * @throws MySqlProcessException if unable to snapshot
+     */
+    void snapshot(Path dataDir, Path snapshot, boolean compress);
+
+    /**
+     * Restores a data directory from a snapshot. The data directory must be empty or not exist.
+     *
+     * @throws IllegalArgumentException if the snapshot doesn't exist, or the data directory isn't empty
+     * @throws MySqlProcessException if unable to restore
+     */
+    void restore(Path snapshot, Path dataDir);
+
+    /**
+     * Adds a listener receiving timed lifecycle events for all data directories initialized and
+     * instances started by the server from now on.
+     */
+    void addLifecycleListener(LifecycleListener listener);
+
 }
 
@@ -1,5 +1,9 @@
 package net.hulte.jmysqld;
 
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * A running instance of the MySQL server.
  */
@@ -17,5 +21,78 @@ public interface MySqlServerInstance {
      */
     void shutdown();
 
+    /**
+     * Shuts down the instance like {@link #shutdown()}, without waiting for it to exit.
+     *
+     * @return a future that is completed once the server process has exited, or fails with a
+     *      {@link MySqlProcessException} if unable to shut down
+     */
+    CompletableFuture<Void> shutdownAsync();
+
+    /**
+     * Records the current state of all user databases, i.e. all databases except the system
+     * databases, so that the instance can be reset to this state later on. Replaces any previous
+     * checkpoint. The data is copied to a separate database called {@code jmysqld_checkpoint}.
+     *
+     * @throws MySqlProcessException if unable to record the state
+     */
+    void checkpoint();
+
+    /**
+     * Resets all user databases to the state recorded by the last {@link #checkpoint()}, without
+     * restarting the instance. Only the databases and tables that have been created, dropped or
+     * changed since the checkpoint are dropped or restored, so resetting an unchanged instance is
+     * cheap.
+     *
+     * <p>Views, routines, triggers and users aren't part of the checkpoint.</p>
+     *
+     * @throws IllegalStateException if no checkpoint has been recorded
+     * @throws MySqlProcessException if unable to reset
+     */
+    void resetToCheckpoint();
+
+    /**
+     * Loads fixtures, i.e. SQL dumps and CSV files, into the instance. The statements of SQL files
+     * affecting a single table are executed over several connections in parallel, grouped by table
+     * so that the statements of each table keep their order, while other statements are executed
+     * once all previous statements have completed. Unique and foreign key checks are disabled while
+     * loading, and rows are committed in batches.
+     *
+     * @throws MySqlProcessException if any statement fails, or a file can't be read
+     */
+    LoadStatistics load(LoadSpec spec);
+
+    /**
+     * Executes one or more SQL statements as root, returning the rows of all result sets in order.
+     * SQL {@code NULL} is returned as the string {@code NULL}.
+     *
+     * @throws MySqlProcessException if any statement fails
+     */
+    List<String[]> execute(String sql);
+
+    /**
+     * Returns the resident set size of the server process in bytes, i.e. the physical memory that it
+     * currently uses, e.g. to verify that an {@link InstanceSpec#memoryBudget(long)} holds.
+     *
+     * @throws MySqlProcessException if the server isn't running, or its memory use can't be read
+     */
+    long getResidentSetSize();
+
+    /**
+     * Returns the data directory used by the instance.
+     */
+    Path getDataDir();
+
+    /**
+     * Returns the Unix socket file used for local connections to the instance.
+     */
+    Path getSocket();
+
+    /**
+     * Returns the port that the instance listens to for TCP/IP connections, or {@code null} if the port
+     * wasn't specified when the instance was started.
+     */
+    Integer getPort();
+
 }
 
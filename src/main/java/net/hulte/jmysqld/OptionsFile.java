@@ -0,0 +1,110 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.newBufferedWriter;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Generates option files holding the server options of an instance, and validates the options
+ * against the version of the server.
+ */
+final class OptionsFile {
+
+    private static final Pattern sizePattern = Pattern.compile("^(\\d+)([kKmMgG]?)$");
+    private static final long mb = 1024 * 1024;
+    private static final long gb = 1024 * mb;
+
+
+    /**
+     * Writes an option file containing options for the {@code [mysqld]} group. If another option file is
+     * given it's included first, so that its settings are overridden by {@code options}.
+     */
+    static void write(Path file, Path includedFile, Map<String, String> options) throws IOException {
+        try (PrintWriter w = new PrintWriter(newBufferedWriter(file, Charset.forName("UTF-8")))) {
+            w.println("# Generated by jmysqld, any changes will be overwritten.");
+            if (includedFile != null) {
+                w.println("!include " + includedFile.toAbsolutePath());
+            }
+            w.println();
+            w.println("[mysqld]");
+            for (Map.Entry<String, String> o : options.entrySet()) {
+                w.println(o.getValue() == null ? o.getKey() : o.getKey() + "=" + o.getValue());
+            }
+        }
+    }
+
+    /**
+     * Validates the values of options known to be limited by the server version.
+     *
+     * @throws IllegalArgumentException if an option has a value not supported by the server
+     */
+    static void validate(Map<String, String> options, Version v) {
+        for (Map.Entry<String, String> o : options.entrySet()) {
+            final String name = o.getKey();
+            final String value = o.getValue();
+
+            switch (name) {
+                case "innodb-buffer-pool-size":
+                    requireRange(name, value, 5 * mb, Long.MAX_VALUE);
+                    break;
+                case "innodb-log-file-size":
+                    if (!v.isAtLeast(5, 6, 8)) {
+                        throw new IllegalArgumentException(name + " can't be changed for an initialized "
+                            + "data directory before MySQL 5.6.8, the server is " + v + ".");
+                    }
+                    requireRange(name, value, v.isAtLeast(5, 7, 11) ? 4 * mb : mb,
+                        512 * gb / logFilesInGroup(options) - 1);
+                    break;
+                case "max-connections":
+                    requireRange(name, value, 1, 100000);
+                    break;
+                case "thread-cache-size":
+                    requireRange(name, value, 0, 16384);
+                    break;
+                case "table-open-cache":
+                    requireRange(name, value, 1, 524288);
+                    break;
+                default:
+            }
+        }
+    }
+
+    /**
+     * Parses a numeric option value, optionally suffixed by {@code K}, {@code M} or {@code G}.
+     *
+     * @throws IllegalArgumentException if the value isn't numeric
+     */
+    static long parseSize(String name, String value) {
+        final Matcher m = value == null ? null : sizePattern.matcher(value);
+        if (m == null || !m.matches()) {
+            throw new IllegalArgumentException("Expected a numeric value for " + name + ", got " + value + ".");
+        }
+
+        final long number = Long.parseLong(m.group(1));
+        switch (m.group(2).toUpperCase()) {
+            case "K": return number * 1024;
+            case "M": return number * mb;
+            case "G": return number * gb;
+            default: return number;
+        }
+    }
+
+    private static long logFilesInGroup(Map<String, String> options) {
+        final String files = options.get("innodb-log-files-in-group");
+        return files == null ? 2 : parseSize("innodb-log-files-in-group", files);
+    }
+
+    private static void requireRange(String name, String value, long min, long max) {
+        final long size = parseSize(name, value);
+        if (size < min || size > max) {
+            throw new IllegalArgumentException(name + " must be between " + min + " and " + max
+                + ", got " + value + ".");
+        }
+    }
+
+    private OptionsFile() {}
+}
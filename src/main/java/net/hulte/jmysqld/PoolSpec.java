@@ -0,0 +1,70 @@
+package net.hulte.jmysqld;
+
+/**
+ * Specifications of how a {@link MySqlInstancePool} keeps instances ready, or a {@link SchemaLeaser}
+ * keeps databases ready.
+ */
+public final class PoolSpec {
+
+    private int size = 1;
+    private Integer minIdle;
+    private int maxTotal = Integer.MAX_VALUE;
+    private int refillConcurrency = 1;
+
+
+    public PoolSpec() {
+    }
+
+
+    /**
+     * The number of idle, started instances that the pool tries to keep ready for leasing. Defaults
+     * to 1.
+     */
+    PoolSpec size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * The pool is refilled up to its {@code size} as soon as the number of idle instances (including
+     * the ones being started or reset) drops below this number. Defaults to the {@code size} of the pool.
+     */
+    PoolSpec minIdle(int minIdle) {
+        this.minIdle = minIdle;
+        return this;
+    }
+
+    int getMinIdle() {
+        return minIdle == null ? size : minIdle;
+    }
+
+    /**
+     * The maximum number of instances, leased, idle or being started, that the pool manages at any
+     * time. Unbounded by default.
+     */
+    PoolSpec maxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+        return this;
+    }
+
+    int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * The maximum number of instances that are started or shut down concurrently in the background.
+     * Defaults to 1.
+     */
+    PoolSpec refillConcurrency(int refillConcurrency) {
+        this.refillConcurrency = refillConcurrency;
+        return this;
+    }
+
+    int getRefillConcurrency() {
+        return refillConcurrency;
+    }
+}
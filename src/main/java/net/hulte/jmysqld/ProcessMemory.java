@@ -0,0 +1,75 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static net.hulte.jmysqld.MySqlProcess.startMySqlProcess;
+import static net.hulte.jmysqld.Utilities.*;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reads the memory use of processes, from {@code /proc} on Linux and from {@code ps} elsewhere.
+ */
+final class ProcessMemory {
+
+    private static final Charset ascii = Charset.forName("US-ASCII");
+
+
+    /**
+     * Returns the resident set size in bytes of the process whose pid is held by a pid-file.
+     *
+     * @throws MySqlProcessException if the process isn't running, or its memory use can't be read
+     */
+    static long residentSetSize(Path pidFile) {
+        final String pid;
+        try {
+            pid = readPid(pidFile);
+        } catch (IOException e) {
+            throw new MySqlProcessException("Unable to read the pid-file " + pidFile + ".", e);
+        }
+        if (pid == null) {
+            throw new MySqlProcessException("No pid in " + pidFile + ".");
+        }
+        return residentSetSize(pid);
+    }
+
+    /**
+     * Returns the resident set size in bytes of a process.
+     *
+     * @throws MySqlProcessException if the process isn't running, or its memory use can't be read
+     */
+    static long residentSetSize(String pid) {
+        final Path status = path("/proc", pid, "status");
+        if (isDirectory(path("/proc", "self"))) {
+            try {
+                return parseStatus(readAllLines(status, ascii));
+            } catch (IOException e) {
+                throw new MySqlProcessException("Unable to read " + status + ".", e);
+            }
+        }
+
+        final MySqlProcess ps = startMySqlProcess(new ProcessBuilder("ps", "-o", "rss=", "-p", pid));
+        final String rss = ps.readStdOut().trim();
+        ps.waitForSuccessfulCompletion();
+        return Long.parseLong(rss) * 1024;
+    }
+
+    /**
+     * Parses the {@code VmRSS} line of {@code /proc/<pid>/status}, e.g. {@code "VmRSS:  2048 kB"}.
+     *
+     * @throws MySqlProcessException if there's no such line, as for zombie processes
+     */
+    static long parseStatus(List<String> lines) {
+        for (String line : lines) {
+            if (line.startsWith("VmRSS:")) {
+                final String[] fields = line.substring("VmRSS:".length()).trim().split("\\s+");
+                return Long.parseLong(fields[0]) * 1024;
+            }
+        }
+        throw new MySqlProcessException("No resident set size in the status of the process.");
+    }
+
+    private ProcessMemory() {}
+}
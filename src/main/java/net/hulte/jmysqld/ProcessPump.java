@@ -0,0 +1,251 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.Utilities.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import org.slf4j.Logger;
+
+/**
+ * Drains the output of all processes, and detects when they exit, using a single shared thread.
+ *
+ * <p>Streams are polled without ever blocking, i.e. only the number of bytes available are read,
+ * so that a silent process doesn't hold up the others. The thread backs off while all processes
+ * are silent, and terminates once there is nothing left to watch. Callbacks for exited processes
+ * run on a separate thread, so that slow callbacks don't delay the output of other processes.</p>
+ */
+final class ProcessPump {
+
+    /**
+     * Receives the lines read from a stream, in order.
+     */
+    interface LineSink {
+        void line(String line);
+    }
+
+    private static final ProcessPump instance = new ProcessPump();
+    private static final long maxIdleMillis = 20;
+
+    /**
+     * The longest line buffered, in bytes. Longer lines, e.g. binary output without newlines, are
+     * passed on in parts of this size.
+     */
+    static final int maxLineBytes = MySqlProcess.tailChars;
+
+    private final Logger logger = getLogger(getClass());
+    private final List<Drain> drains = list();
+    private final Map<Process, List<Runnable>> exitCallbacks = new LinkedHashMap<>();
+    private final ThreadPoolExecutor reaper = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), namedDaemons("process-reaper"));
+    private boolean running;
+
+
+    static ProcessPump processPump() {
+        return instance;
+    }
+
+    private ProcessPump() {
+        reaper.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * Reads lines from a stream of a process until the stream ends or the process exits, whichever
+     * comes first. {@code onEnd} is invoked once the last line has been passed to the sink.
+     */
+    synchronized void drain(Process p, InputStream in, Charset charset, LineSink sink, Runnable onEnd) {
+        drains.add(new Drain(p, in, charset, sink, onEnd));
+        ensureRunning();
+    }
+
+    /**
+     * Invokes a callback once a process has exited.
+     */
+    synchronized void onExit(Process p, Runnable callback) {
+        List<Runnable> callbacks = exitCallbacks.get(p);
+        if (callbacks == null) {
+            callbacks = list();
+            exitCallbacks.put(p, callbacks);
+        }
+        callbacks.add(callback);
+        ensureRunning();
+    }
+
+    private void ensureRunning() {
+        if (!running) {
+            running = true;
+            startNamedDaemon("process-pump", new Runnable() {
+                @Override public void run() {
+                    pump();
+                }
+            });
+        }
+    }
+
+    private void pump() {
+        long idleMillis = 1;
+        while (true) {
+            final List<Drain> currentDrains;
+            final List<Process> watched;
+            synchronized (this) {
+                if (drains.isEmpty() && exitCallbacks.isEmpty()) {
+                    running = false;
+                    return;
+                }
+                currentDrains = new ArrayList<>(drains);
+                watched = new ArrayList<>(exitCallbacks.keySet());
+            }
+
+            boolean progress = false;
+            for (Drain d : currentDrains) {
+                progress |= d.pump();
+                if (d.ended) {
+                    removeDrain(d);
+                }
+            }
+
+            // exits are handled after draining, so that the final output is passed on first
+            for (Process p : watched) {
+                if (hasExited(p)) {
+                    for (Runnable callback : removeExitCallbacks(p)) {
+                        reaper.execute(callback);
+                    }
+                    progress = true;
+                }
+            }
+
+            if (progress) {
+                idleMillis = 1;
+            } else {
+                sleep(idleMillis);
+                idleMillis = Math.min(idleMillis * 2, maxIdleMillis);
+            }
+        }
+    }
+
+    private synchronized void removeDrain(Drain d) {
+        drains.remove(d);
+    }
+
+    private synchronized List<Runnable> removeExitCallbacks(Process p) {
+        return exitCallbacks.remove(p);
+    }
+
+    static boolean hasExited(Process p) {
+        try {
+            p.exitValue();
+            return true;
+        } catch (IllegalThreadStateException e) {
+            return false;
+        }
+    }
+
+    private final class Drain {
+
+        final Process p;
+        final InputStream in;
+        final Charset charset;
+        final LineSink sink;
+        final Runnable onEnd;
+        final byte[] buffer = new byte[8192];
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        boolean wrapped;
+        boolean ended;
+
+        Drain(Process p, InputStream in, Charset charset, LineSink sink, Runnable onEnd) {
+            this.p = p;
+            this.in = in;
+            this.charset = charset;
+            this.sink = sink;
+            this.onEnd = onEnd;
+        }
+
+        /**
+         * Reads the bytes currently available, if any.
+         *
+         * @return {@code true} if anything was read, or the drain ended
+         */
+        boolean pump() {
+            try {
+                final int available = in.available();
+                if (available > 0) {
+                    final int numRead = in.read(buffer, 0, Math.min(available, buffer.length));
+                    if (numRead == -1) {
+                        end();
+                    } else {
+                        split(numRead);
+                    }
+                    return true;
+                }
+
+                if (hasExited(p)) {
+                    end();
+                    return true;
+                }
+            } catch (IOException e) {
+                logger.warn("Unable to read output of process.", e);
+                end();
+                return true;
+            }
+            return false;
+        }
+
+        private void split(int numRead) {
+            int start = 0;
+            for (int i = 0; i < numRead; i++) {
+                if (buffer[i] == '\n') {
+                    append(start, i);
+                    // a line wrapped exactly at the limit has already been passed on
+                    if (line.size() > 0 || !wrapped) {
+                        emitLine();
+                    }
+                    wrapped = false;
+                    start = i + 1;
+                }
+            }
+            append(start, numRead);
+        }
+
+        /**
+         * Appends bytes of the buffer to the current line, passing it on whenever it reaches
+         * {@link #maxLineBytes}.
+         */
+        private void append(int from, int to) {
+            while (from < to) {
+                final int n = Math.min(to - from, maxLineBytes - line.size());
+                line.write(buffer, from, n);
+                from += n;
+                if (line.size() == maxLineBytes) {
+                    emitLine();
+                    wrapped = true;
+                }
+            }
+        }
+
+        private void emitLine() {
+            final String text = new String(line.toByteArray(), charset);
+            line.reset();
+            try {
+                sink.line(text.endsWith("\r") ? text.substring(0, text.length() - 1) : text);
+            } catch (RuntimeException e) {
+                logger.warn("Line sink failed.", e);
+            }
+        }
+
+        private void end() {
+            ended = true;
+            if (line.size() > 0) {
+                emitLine();
+            }
+            try {
+                in.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close output stream of process.", e);
+            }
+            onEnd.run();
+        }
+    }
+}
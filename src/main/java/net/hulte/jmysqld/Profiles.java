@@ -0,0 +1,161 @@
+package net.hulte.jmysqld;
+
+import java.util.*;
+
+/**
+ * Sets of server options applied to instances started with a specific profile. The options are
+ * chosen based on the version of the server, and mapped from option name to value. Options without
+ * a value, i.e. flags, are mapped to {@code null}.
+ */
+final class Profiles {
+
+    static final long minMemoryBudgetMb = 32;
+    private static final long mb = 1024 * 1024;
+
+    /**
+     * Options trading durability for throughput, for instances whose data is thrown away when they
+     * shut down. The options assume that the data directory is on a RAM-backed file system.
+     */
+    static Map<String, String> ephemeralOptions(Version v) {
+        final Map<String, String> result = new LinkedHashMap<>();
+
+        result.put("innodb-flush-log-at-trx-commit", "0");
+        result.put("innodb-doublewrite", "0");
+        result.put("sync-binlog", "0");
+        result.put("skip-name-resolve", null);
+        result.put("performance-schema", "0");
+
+        // tmpfs doesn't support the O_DIRECT file access used by native AIO
+        result.put("innodb-use-native-aio", "0");
+
+        if (v.isAtLeast(5, 6, 3)) {
+            result.put("innodb-checksum-algorithm", "none");
+        } else {
+            result.put("innodb-checksums", "0");
+        }
+
+        if (v.isAtLeast(5, 6, 6)) {
+            result.put("innodb-stats-persistent", "0");
+        }
+
+        // older versions refuse to start if the size of the log files has changed
+        if (v.isAtLeast(5, 6, 8)) {
+            result.put("innodb-log-file-size", "8M");
+        }
+
+        if (!v.isAtLeast(8, 0, 0)) {
+            result.put("sync-frm", "0");
+        }
+
+        if (v.isAtLeast(8, 0, 0)) {
+            result.put("skip-log-bin", null);
+        }
+
+        if (v.isAtLeast(8, 0, 11)) {
+            result.put("mysqlx", "0");
+        }
+
+        return result;
+    }
+
+    /**
+     * Options used while installing a data directory with {@link InitializeOption#SKIP_OPTIONAL_STEPS},
+     * which are passed on to the bootstrapped server by {@code mysql_install_db}. Only affects the
+     * installation, not the instances later started in the data directory.
+     */
+    static Map<String, String> initializeOptions(Version v) {
+        final Map<String, String> result = new LinkedHashMap<>();
+
+        result.put("innodb-doublewrite", "0");
+        result.put("innodb-flush-log-at-trx-commit", "0");
+
+        // mysql_install_db otherwise forks resolveip, and creates root users for the host name
+        if (!v.isAtLeast(5, 7, 6)) {
+            result.put("skip-name-resolve", null);
+        }
+
+        if (!v.isAtLeast(8, 0, 0)) {
+            result.put("sync-frm", "0");
+        }
+
+        if (v.isAtLeast(8, 0, 0)) {
+            result.put("skip-log-bin", null);
+        }
+
+        return result;
+    }
+
+    /**
+     * Options sizing the buffers and caches of the server to fit a memory budget, see
+     * {@link InstanceSpec#memoryBudget(long)}. Half of the budget goes to the InnoDB buffer pool, and
+     * the global buffers of other engines, the per-connection buffers and the number of connections
+     * are scaled down from their defaults along with it. The performance schema, which reserves
+     * memory for its instrumentation up front, is disabled.
+     *
+     * @throws IllegalArgumentException if the budget is less than {@value #minMemoryBudgetMb} MB
+     */
+    static Map<String, String> memoryOptions(Version v, long budget) {
+        final long budgetMb = budget / mb;
+        if (budgetMb < minMemoryBudgetMb) {
+            throw new IllegalArgumentException("A memory budget of at least " + minMemoryBudgetMb
+                + " MB is required, got " + budget + " bytes.");
+        }
+
+        final Map<String, String> result = new LinkedHashMap<>();
+
+        result.put("innodb-buffer-pool-size", budgetMb / 2 + "M");
+        result.put("innodb-buffer-pool-instances", "1");
+        result.put("innodb-log-buffer-size", "1M");
+        result.put("key-buffer-size", Math.max(1, budgetMb / 64) + "M");
+        result.put("performance-schema", "0");
+
+        // the per-connection buffers are only allocated when needed, but add up with the connections
+        result.put("max-connections", String.valueOf(Math.min(151, Math.max(10, budgetMb / 4))));
+        result.put("sort-buffer-size", "256K");
+        result.put("join-buffer-size", "256K");
+        result.put("read-rnd-buffer-size", "256K");
+        result.put("tmp-table-size", Math.max(1, budgetMb / 16) + "M");
+        result.put("max-heap-table-size", Math.max(1, budgetMb / 16) + "M");
+
+        result.put("table-open-cache", "64");
+        result.put("table-definition-cache", "400");
+
+        if (v.isAtLeast(5, 6, 4)) {
+            result.put("innodb-sort-buffer-size", "64K");
+        }
+
+        if (v.isAtLeast(5, 6, 6)) {
+            result.put("table-open-cache-instances", "1");
+        }
+
+        if (!v.isAtLeast(8, 0, 0)) {
+            result.put("query-cache-size", "0");
+            result.put("query-cache-type", "0");
+        }
+
+        if (v.isAtLeast(8, 0, 2)) {
+            result.put("temptable-max-ram", Math.max(2, budgetMb / 16) + "M");
+        }
+
+        if (v.isAtLeast(8, 0, 11)) {
+            result.put("mysqlx", "0");
+        }
+
+        return result;
+    }
+
+    /**
+     * Formats options as command-line arguments.
+     */
+    static List<String> asArguments(Map<String, String> options) {
+        final List<String> result = new ArrayList<>();
+        for (Map.Entry<String, String> o : options.entrySet()) {
+            result.add(o.getValue() == null
+                ? "--" + o.getKey()
+                : "--" + o.getKey() + "=" + o.getValue());
+        }
+        return result;
+    }
+
+    private Profiles() {}
+}
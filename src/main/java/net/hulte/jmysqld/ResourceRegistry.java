@@ -0,0 +1,224 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import org.slf4j.Logger;
+
+/**
+ * A host-wide registry of the TCP/IP ports and socket files handed out to instances, shared by all
+ * JVMs on the host through a directory protected by a file lock. A port or socket is reserved until
+ * it's released, which happens automatically when the owning JVM exits. Reservations owned by
+ * processes that are no longer alive are reclaimed. Socket files are only deleted when released
+ * explicitly, since a server may outlive the JVM that started it.
+ *
+ * <p>The registry is kept in {@code jmysqld-registry} below {@code java.io.tmpdir}, unless another
+ * directory is given by the {@code jmysqld.registry} system property.</p>
+ */
+final class ResourceRegistry {
+
+    private static final Logger logger = getLogger(ResourceRegistry.class);
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    private static final int maxAttempts = 100;
+    private static final String portPrefix = "port-";
+    private static final String socketPrefix = "socket-";
+    private static final String socketSuffix = ".sock";
+
+    static final String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+    private static final Set<Path> owned = set();
+    private static boolean shutdownHookAdded;
+
+
+    /**
+     * Reserves a port that's currently free, and not reserved by anyone else.
+     *
+     * @throws MySqlProcessException if unable to find a free port
+     */
+    static int reservePort() {
+        return locked(new Locked<Integer>() {
+            @Override public Integer run(Path dir) throws IOException {
+                for (int attempt = 0; attempt < maxAttempts; attempt++) {
+                    final int port;
+                    try (ServerSocket s = new ServerSocket(0)) {
+                        port = s.getLocalPort();
+                    }
+
+                    if (reserve(dir.resolve(portPrefix + port))) {
+                        return port;
+                    }
+                }
+
+                throw new MySqlProcessException("Unable to find a free port after " + maxAttempts + " attempts.");
+            }
+        });
+    }
+
+    /**
+     * Reserves the path of a new socket file.
+     */
+    static Path reserveSocket() {
+        return locked(new Locked<Path>() {
+            @Override public Path run(Path dir) throws IOException {
+                final String id = randomUUID().toString();
+                reserve(dir.resolve(socketPrefix + id));
+                return dir.resolve(id + socketSuffix);
+            }
+        });
+    }
+
+    static void releasePort(int port) {
+        release(portPrefix + port, null);
+    }
+
+    /**
+     * Releases a socket, deleting the socket file if it's been left behind by the server.
+     */
+    static void releaseSocket(Path socket) {
+        final String name = socket.getFileName().toString();
+        release(socketPrefix + name.substring(0, name.length() - socketSuffix.length()), socket);
+    }
+
+    private static void release(final String entry, final Path socket) {
+        locked(new Locked<Void>() {
+            @Override public Void run(Path dir) throws IOException {
+                if (socket != null) {
+                    deleteIfExists(socket);
+                }
+                deleteIfExists(dir.resolve(entry));
+                owned.remove(dir.resolve(entry));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Transfers the reservations of a socket, and of a port unless {@code null}, to this process, e.g.
+     * from the JVM that started a shared instance to its watchdog. The previous owner no longer
+     * releases them when it exits.
+     */
+    static void transfer(final Path socket, final Integer port) {
+        locked(new Locked<Void>() {
+            @Override public Void run(Path dir) throws IOException {
+                final String name = socket.getFileName().toString();
+                final List<Path> entries = new ArrayList<>();
+                entries.add(dir.resolve(socketPrefix + name.substring(0, name.length() - socketSuffix.length())));
+                if (port != null) {
+                    entries.add(dir.resolve(portPrefix + port));
+                }
+
+                for (Path entry : entries) {
+                    if (exists(entry)) {
+                        write(entry, pid.getBytes(utf8));
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    private static boolean reserve(Path entry) throws IOException {
+        try {
+            write(entry, pid.getBytes(utf8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+
+        owned.add(entry);
+        if (!shutdownHookAdded) {
+            shutdownHookAdded = true;
+            addShutdownHook(new Runnable() {
+                @Override public void run() {
+                    releaseAll();
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Releases the reservations still owned by this JVM, as it exits, leaving those that have been
+     * transferred to another process.
+     */
+    private static synchronized void releaseAll() {
+        for (Path entry : owned) {
+            try {
+                if (exists(entry) && owner(entry).equals(pid)) {
+                    deleteIfExists(entry);
+                }
+            } catch (IOException e) {
+                logger.warn("Unable to release " + entry + ".", e);
+            }
+        }
+        owned.clear();
+    }
+
+    /**
+     * Deletes the reservations owned by processes that are no longer alive.
+     */
+    private static void reclaimStale(Path dir) throws IOException {
+        try (DirectoryStream<Path> entries = newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                final String name = entry.getFileName().toString();
+                if ((name.startsWith(portPrefix) || name.startsWith(socketPrefix)) && !isAlive(owner(entry))) {
+                    logger.debug("Reclaiming " + name + ", owned by a dead process.");
+                    deleteIfExists(entry);
+                }
+            }
+        }
+    }
+
+    private static String owner(Path entry) {
+        try {
+            return new String(readAllBytes(entry), utf8).trim();
+        } catch (IOException e) {
+            return pid;
+        }
+    }
+
+    /**
+     * Returns {@code false} if a process is known not to be alive, which can only be determined on
+     * systems providing {@code /proc}.
+     */
+    static boolean isAlive(String pid) {
+        final Path proc = path("/proc");
+        return !isDirectory(proc) || exists(proc.resolve(pid));
+    }
+
+    private static synchronized <T> T locked(Locked<T> task) {
+        final Path dir = directory();
+        try {
+            createDirectories(dir);
+            try (FileChannel channel = FileChannel.open(dir.resolve("registry.lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+
+                reclaimStale(dir);
+                return task.run(dir);
+            }
+        } catch (IOException e) {
+            throw new MySqlProcessException("Unable to update the registry in " + dir + ".", e);
+        }
+    }
+
+    static Path directory() {
+        final String dir = System.getProperty("jmysqld.registry");
+        return dir == null
+            ? tmpDir().resolve("jmysqld-registry")
+            : path(dir);
+    }
+
+    private interface Locked<T> {
+        T run(Path dir) throws IOException;
+    }
+
+    private ResourceRegistry() {}
+}
@@ -0,0 +1,327 @@
+package net.hulte.jmysqld;
+
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.MySqlClient.*;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.slf4j.Logger;
+
+/**
+ * Leases isolated databases on a single running instance, each cloned from a template database and
+ * accessible by a MySQL user of its own, so that tests can share an instance without interfering
+ * with each other.
+ *
+ * <p>Databases are cloned in the background, so that a database can be leased without waiting for
+ * it to be created. The tables of the template are created from their {@code SHOW CREATE TABLE}
+ * definitions, which keeps foreign keys unlike {@code CREATE TABLE ... LIKE}, and their rows are
+ * bulk copied with {@code INSERT ... SELECT}. The template is read once, when the leaser is
+ * created.</p>
+ *
+ * <p>Released databases, and their users, are dropped in the background. Views, routines and
+ * triggers of the template aren't cloned.</p>
+ */
+public final class SchemaLeaser implements AutoCloseable {
+
+    /**
+     * A database leased from a {@link SchemaLeaser}. Closing the lease releases the database.
+     */
+    public static final class Lease implements AutoCloseable {
+
+        private final SchemaLeaser leaser;
+        private final String database;
+        private final String user;
+        private final String password;
+
+
+        private Lease(SchemaLeaser leaser, String database, String user, String password) {
+            this.leaser = leaser;
+            this.database = database;
+            this.user = user;
+            this.password = password;
+        }
+
+
+        /**
+         * Returns the instance that the database is created in.
+         */
+        public MySqlServerInstance getInstance() {
+            return leaser.instance;
+        }
+
+        public String getDatabase() {
+            return database;
+        }
+
+        /**
+         * Returns the name of a user that has all privileges on the database, and no others.
+         */
+        public String getUser() {
+            return user;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        @Override
+        public void close() {
+            leaser.release(this);
+        }
+
+        @Override
+        public String toString() {
+            return database;
+        }
+    }
+
+    /**
+     * Hosts that the user of each leased database may connect from. {@code localhost} is needed
+     * since the anonymous users created by older versions would otherwise take precedence for local
+     * connections.
+     */
+    private static final List<String> hosts = list("localhost", "%");
+
+    private final Logger logger = getLogger(getClass());
+    private final MySqlServerInstance instance;
+    private final String template;
+    private final List<String> tables = list();
+    private final List<String> definitions = list();
+    private String createOptions = "";
+    private final PoolSpec poolSpec;
+    private final ExecutorService executor;
+
+    private final Deque<Lease> idle = new ArrayDeque<>();
+    private final Set<Lease> leased = set();
+    private int pending;
+    private int failures;
+    private Throwable lastFailure;
+    private boolean closed;
+
+
+    /**
+     * Creates a leaser and starts cloning databases in the background.
+     *
+     * @param instance the instance in which databases are created
+     * @param template the database that leased databases are cloned from, or {@code null} to lease
+     *      empty databases
+     * @param poolSpec specifications of how many databases to keep ready
+     * @throws IllegalArgumentException if the pool specification is inconsistent, or if the template
+     *      database doesn't exist
+     * @throws MySqlProcessException if unable to read the template
+     */
+    public SchemaLeaser(MySqlServerInstance instance, String template, PoolSpec poolSpec) {
+        if (poolSpec.getSize() < 1 || poolSpec.getMinIdle() > poolSpec.getSize()
+                || poolSpec.getMaxTotal() < poolSpec.getSize() || poolSpec.getRefillConcurrency() < 1) {
+            throw new IllegalArgumentException("Expected 1 <= size, minIdle <= size <= maxTotal and "
+                + "1 <= refillConcurrency.");
+        }
+
+        this.instance = instance;
+        this.template = template;
+        this.poolSpec = poolSpec;
+        if (template != null) {
+            readTemplate();
+        }
+
+        this.executor = Executors.newFixedThreadPool(poolSpec.getRefillConcurrency(),
+            namedDaemons("schema-leaser"));
+
+        synchronized (this) {
+            refill();
+        }
+    }
+
+
+    /**
+     * Leases a database, waiting for one to be cloned if none are ready.
+     *
+     * @throws MySqlProcessException if the leaser is unable to clone new databases
+     * @throws IllegalStateException if the leaser is closed
+     */
+    public synchronized Lease lease() {
+        final int failuresBefore = failures;
+
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("The leaser is closed.");
+            }
+
+            final Lease l = idle.pollFirst();
+            if (l != null) {
+                leased.add(l);
+                refill();
+                return l;
+            }
+
+            if (failures > failuresBefore && pending == 0) {
+                throw new MySqlProcessException("Unable to clone " + template + ".", lastFailure);
+            }
+
+            refill();
+
+            execute(() -> SchemaLeaser.this.wait());
+        }
+    }
+
+    /**
+     * Releases a leased database, which is dropped along with its user in the background.
+     *
+     * @throws IllegalArgumentException if the database isn't leased from this leaser
+     */
+    public synchronized void release(Lease lease) {
+        if (!leased.remove(lease)) {
+            throw new IllegalArgumentException(lease + " isn't leased from this leaser.");
+        }
+        drop(lease);
+        refill();
+    }
+
+    /**
+     * Closes the leaser, dropping all databases ready for leasing. Databases currently leased are
+     * dropped as they are released.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        while (!idle.isEmpty()) {
+            drop(idle.pollFirst());
+        }
+        executor.shutdown();
+        notifyAll();
+    }
+
+    private void readTemplate() {
+        final List<String[]> schema = instance.execute(
+            "SELECT DEFAULT_CHARACTER_SET_NAME, DEFAULT_COLLATION_NAME FROM information_schema.SCHEMATA "
+            + "WHERE SCHEMA_NAME = " + quote(template));
+        if (schema.isEmpty()) {
+            throw new IllegalArgumentException("The template database " + template + " doesn't exist.");
+        }
+        createOptions = " CHARACTER SET " + schema.get(0)[0] + " COLLATE " + schema.get(0)[1];
+
+        for (String[] row : instance.execute("SELECT TABLE_NAME FROM information_schema.TABLES "
+                + "WHERE TABLE_SCHEMA = " + quote(template) + " AND TABLE_TYPE = 'BASE TABLE' "
+                + "ORDER BY TABLE_NAME")) {
+            tables.add(row[0]);
+        }
+        if (tables.isEmpty()) {
+            return;
+        }
+
+        final StringBuilder show = new StringBuilder();
+        for (String t : tables) {
+            show.append("SHOW CREATE TABLE ").append(quoteName(template, t)).append(";\n");
+        }
+        for (String[] row : instance.execute(show.toString())) {
+            definitions.add(row[1]);
+        }
+    }
+
+    /**
+     * Returns the statements creating a leased database, its tables and its user.
+     */
+    String cloneSql(Lease l) {
+        final StringBuilder sql = new StringBuilder("SET foreign_key_checks = 0, unique_checks = 0;\n")
+            .append("CREATE DATABASE ").append(quoteName(l.database)).append(createOptions).append(";\n")
+            .append("USE ").append(quoteName(l.database)).append(";\n");
+
+        for (String definition : definitions) {
+            sql.append(definition).append(";\n");
+        }
+        for (String t : tables) {
+            sql.append("INSERT INTO ").append(quoteName(t))
+                .append(" SELECT * FROM ").append(quoteName(template, t)).append(";\n");
+        }
+        for (String host : hosts) {
+            final String user = quote(l.user) + "@" + quote(host);
+            sql.append("CREATE USER ").append(user).append(" IDENTIFIED BY ").append(quote(l.password)).append(";\n")
+                .append("GRANT ALL ON ").append(quoteName(l.database)).append(".* TO ").append(user).append(";\n");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Returns the statements dropping a leased database and its user.
+     */
+    static String dropSql(Lease l) {
+        final StringBuilder sql = new StringBuilder("DROP DATABASE IF EXISTS ")
+            .append(quoteName(l.database)).append(";\n");
+        for (String host : hosts) {
+            sql.append("DROP USER ").append(quote(l.user)).append("@").append(quote(host)).append(";\n");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Clones new databases until {@code size} databases are ready, provided the number of ready
+     * databases has dropped below {@code minIdle}.
+     */
+    private void refill() {
+        if (closed || idle.size() + pending >= poolSpec.getMinIdle()) {
+            return;
+        }
+
+        while (idle.size() + pending < poolSpec.getSize() && total() < poolSpec.getMaxTotal()) {
+            pending++;
+            executor.execute(this::cloneDatabase);
+        }
+    }
+
+    private void cloneDatabase() {
+        // user names are limited to 16 characters before 5.7.8
+        final String id = randomUUID().toString().replace("-", "").substring(0, 10);
+        final Lease l = new Lease(this, "lease_" + id, "lease_" + id,
+            randomUUID().toString().replace("-", ""));
+        Throwable failure = null;
+
+        final long start = System.nanoTime();
+        try {
+            instance.execute(cloneSql(l));
+            logger.debug("Cloned " + template + " to " + l + " in " + millisSince(start) + " ms.");
+        } catch (RuntimeException e) {
+            logger.warn("Unable to clone " + template + ".", e);
+            failure = e;
+        }
+
+        synchronized (this) {
+            pending--;
+            if (failure != null) {
+                failures++;
+                lastFailure = failure;
+                drop(l);
+            } else if (closed) {
+                drop(l);
+            } else {
+                idle.addLast(l);
+            }
+            notifyAll();
+        }
+    }
+
+    private void drop(final Lease l) {
+        final Runnable drop = () -> {
+            try {
+                instance.execute(dropSql(l));
+            } catch (RuntimeException e) {
+                logger.warn("Unable to drop leased database " + l + ".", e);
+            }
+        };
+
+        if (executor.isShutdown()) {
+            startNamedDaemon("schema-leaser-drop-" + l, drop);
+        } else {
+            executor.execute(drop);
+        }
+    }
+
+    private int total() {
+        return idle.size() + leased.size() + pending;
+    }
+}
@@ -0,0 +1,178 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.Utilities.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Facts about a server binary that only change with the binary itself: its version, and the options it
+ * supports along with their default values, as listed by {@code mysqld --verbose --help}. Option names
+ * use dashes rather than underscores, and options without a default value are mapped to {@code null}.
+ */
+final class ServerMetadata {
+
+    private static final Pattern versionPattern = Pattern.compile("^.*Ver\\s(.*)\\sfor.*");
+    private static final Pattern optionPattern = Pattern.compile("^\\s*--([a-z0-9][a-z0-9_\\-]*)\\b.*");
+    private static final String noDefault = "(No default value)";
+
+    private final String version;
+    private final Map<String, String> options;
+
+
+    ServerMetadata(String version, Map<String, String> options) {
+        this.version = version;
+        this.options = Collections.unmodifiableMap(new TreeMap<>(options));
+    }
+
+
+    String getVersion() {
+        return version;
+    }
+
+    Map<String, String> getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns {@code true} if the server supports an option. Options prefixed by {@code skip-},
+     * {@code disable-} or {@code enable-} are supported if the option they negate is, and options
+     * prefixed by {@code loose-} are always accepted by the server.
+     */
+    boolean isSupported(String name) {
+        final String n = name.replace('_', '-');
+        if (options.containsKey(n) || n.startsWith("loose-")) {
+            return true;
+        }
+        for (String prefix : list("skip-", "disable-", "enable-")) {
+            if (n.startsWith(prefix) && options.containsKey(n.substring(prefix.length()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @throws IllegalArgumentException if any of the options isn't supported by the server
+     */
+    void requireSupported(Collection<String> names) {
+        if (options.isEmpty()) {
+            return;
+        }
+        for (String name : names) {
+            if (!isSupported(name)) {
+                throw new IllegalArgumentException("The option " + name + " isn't supported by MySQL "
+                    + version + ".");
+            }
+        }
+    }
+
+    /**
+     * Loads metadata stored by {@link #store(Path)}.
+     *
+     * @return the metadata, or {@code null} if the file doesn't exist or can't be read
+     */
+    static ServerMetadata load(Path file) {
+        final Properties props = new Properties();
+        try (InputStream in = newInputStream(file)) {
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+
+        final String version = props.getProperty("version");
+        if (version == null) {
+            return null;
+        }
+
+        final Map<String, String> options = new TreeMap<>();
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith("option.")) {
+                final String value = props.getProperty(key);
+                options.put(key.substring("option.".length()), value.isEmpty() ? null : value);
+            }
+        }
+        return new ServerMetadata(version, options);
+    }
+
+    /**
+     * Stores the metadata in a file, which is replaced atomically so that it may be shared by several
+     * JVMs.
+     */
+    void store(Path file) throws IOException {
+        final Properties props = new Properties();
+        props.setProperty("version", version);
+        for (Map.Entry<String, String> o : options.entrySet()) {
+            props.setProperty("option." + o.getKey(), o.getValue() == null ? "" : o.getValue());
+        }
+
+        createDirectories(file.getParent());
+        final Path tmp = file.resolveSibling(".tmp-" + randomUUID());
+        try {
+            try (OutputStream out = newOutputStream(tmp)) {
+                props.store(out, null);
+            }
+            move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Parses the output of {@code mysqld --verbose --help} line by line, so that the output is never
+     * held in memory. The options are taken from both the list of options, and the table of variables
+     * and their values at the end of the output.
+     */
+    static final class HelpParser implements ProcessPump.LineSink {
+
+        private final Map<String, String> options = new TreeMap<>();
+        private String version;
+        private boolean inTable;
+        private boolean tableDone;
+
+        @Override
+        public void line(String line) {
+            if (version == null) {
+                version = firstMatchOrNull(versionPattern, line);
+            }
+
+            if (!inTable && !tableDone && line.startsWith("-----") && line.contains(" -----")) {
+                inTable = true;
+                return;
+            }
+
+            if (inTable) {
+                if (line.trim().isEmpty()) {
+                    inTable = false;
+                    tableDone = true;
+                    return;
+                }
+
+                final String[] nameAndValue = line.trim().split("\\s+", 2);
+                final String value = nameAndValue.length < 2 ? "" : nameAndValue[1].trim();
+                options.put(nameAndValue[0].replace('_', '-'),
+                    value.isEmpty() || value.equals(noDefault) ? null : value);
+                return;
+            }
+
+            final String name = firstMatchOrNull(optionPattern, line);
+            if (name != null && !options.containsKey(name.replace('_', '-'))) {
+                options.put(name.replace('_', '-'), null);
+            }
+        }
+
+        /**
+         * @throws IllegalStateException if the output didn't contain a version
+         */
+        ServerMetadata result() {
+            if (version == null) {
+                throw new IllegalStateException("Unable to parse version-string from the help output.");
+            }
+            return new ServerMetadata(version, options);
+        }
+    }
+}
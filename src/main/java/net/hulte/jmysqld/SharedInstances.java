@@ -0,0 +1,358 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static net.hulte.jmysqld.ResourceRegistry.isAlive;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.slf4j.Logger;
+
+/**
+ * Instances shared by all JVMs on the host, see {@link InstanceSpec.Option#SHARED}.
+ *
+ * <p>Each shared instance is recorded in a state file next to the {@link ResourceRegistry}, named
+ * after its data directory and protected by a file lock of its own. The state lists the pid of the
+ * JVM behind each attachment, so an instance is reference counted. JVMs detach when they exit, and
+ * the attachments of JVMs that are no longer alive are dropped.</p>
+ *
+ * <p>A watchdog, running in a JVM of its own so that it outlives the JVM that started the instance,
+ * shuts the instance down with {@code SIGTERM} once no JVM has been attached to it for its idle
+ * timeout. The watchdog takes over the reservations of the socket and port of the instance from the
+ * JVM that started it, and releases them once the instance has exited.</p>
+ *
+ * <p>The state of each instance is only updated by one thread of the JVM at a time, so that starting
+ * an instance doesn't hold up attaching to others.</p>
+ */
+final class SharedInstances {
+
+    /**
+     * The recorded state of a shared instance.
+     */
+    static final class State {
+
+        final Path socket;
+        final Integer port;
+        final Path pidFile;
+        boolean portReserved;
+        String fingerprint;
+        long idleTimeoutMillis;
+        final List<String> holders = list();
+        long idleSince;
+        String watchdog;
+
+        State(Path socket, Integer port, Path pidFile) {
+            this.socket = socket;
+            this.port = port;
+            this.pidFile = pidFile;
+        }
+
+        /**
+         * Returns {@code true} as long as the server has a pid-file, and its process is alive.
+         */
+        boolean isServerAlive() {
+            try {
+                final String pid = readPid(pidFile);
+                return pid != null && isAlive(pid);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        static State load(Path file) throws IOException {
+            if (!exists(file)) {
+                return null;
+            }
+
+            final Properties p = new Properties();
+            try (Reader r = newBufferedReader(file, ascii)) {
+                p.load(r);
+            }
+
+            final String port = p.getProperty("port");
+            final State result = new State(path(p.getProperty("socket")),
+                port == null ? null : Integer.valueOf(port), path(p.getProperty("pidFile")));
+            result.portReserved = Boolean.parseBoolean(p.getProperty("portReserved"));
+            result.fingerprint = p.getProperty("fingerprint");
+            result.idleTimeoutMillis = Long.parseLong(p.getProperty("idleTimeout"));
+            result.idleSince = Long.parseLong(p.getProperty("idleSince"));
+            result.watchdog = p.getProperty("watchdog");
+            for (String h : p.getProperty("holders").split(",")) {
+                if (!h.isEmpty()) {
+                    result.holders.add(h);
+                }
+            }
+            return result;
+        }
+
+        void store(Path file) throws IOException {
+            final Properties p = new Properties();
+            p.setProperty("socket", socket.toString());
+            if (port != null) {
+                p.setProperty("port", port.toString());
+            }
+            p.setProperty("pidFile", pidFile.toString());
+            p.setProperty("portReserved", String.valueOf(portReserved));
+            p.setProperty("fingerprint", fingerprint);
+            p.setProperty("idleTimeout", String.valueOf(idleTimeoutMillis));
+            p.setProperty("idleSince", String.valueOf(idleSince));
+            if (watchdog != null) {
+                p.setProperty("watchdog", watchdog);
+            }
+            final StringBuilder holders = new StringBuilder();
+            for (String h : this.holders) {
+                holders.append(holders.length() == 0 ? "" : ",").append(h);
+            }
+            p.setProperty("holders", holders.toString());
+
+            final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer w = newBufferedWriter(tmp, ascii)) {
+                p.store(w, null);
+            }
+            move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Starts an instance that isn't running yet.
+     */
+    interface Starter {
+        State start();
+    }
+
+    private static final Logger logger = getLogger(SharedInstances.class);
+    private static final Charset ascii = Charset.forName("US-ASCII");
+    private static final long maxPollMillis = 1000;
+    private static final long terminateTimeoutMillis = 60000;
+
+    private static final List<Path> attached = list();
+    private static final ConcurrentMap<Path, Object> monitors = new ConcurrentHashMap<>();
+    private static boolean shutdownHookAdded;
+
+
+    /**
+     * Watches the shared instance in the data directory given as the only argument, until it's been
+     * shut down.
+     */
+    public static void main(String[] args) {
+        final Path dataDir = path(args[0]);
+        long pollMillis;
+        while ((pollMillis = watch(dataDir)) > 0) {
+            sleep(pollMillis);
+        }
+    }
+
+    /**
+     * Attaches to the shared instance in a data directory, starting it if it isn't running.
+     *
+     * @return the state of the instance
+     * @throws IllegalStateException if the instance is running with another specification
+     */
+    static State attach(final Path dataDir, final String fingerprint,
+            final long idleTimeoutMillis, final Starter starter) {
+
+        return locked(dataDir, new Locked<State>() {
+            @Override public State run(Path stateFile) throws IOException {
+                State s = State.load(stateFile);
+                if (s != null && !s.isServerAlive()) {
+                    logger.debug("The shared instance in " + dataDir + " is no longer running.");
+                    s = null;
+                }
+                if (s != null && !s.fingerprint.equals(fingerprint)) {
+                    throw new IllegalStateException("The shared instance in " + dataDir
+                        + " is running with another specification.");
+                }
+
+                if (s == null) {
+                    s = starter.start();
+                    s.fingerprint = fingerprint;
+                    s.idleTimeoutMillis = idleTimeoutMillis;
+                }
+                s.holders.add(ResourceRegistry.pid);
+                s.idleSince = 0;
+                s.store(stateFile);
+
+                if (s.watchdog == null || !isAlive(s.watchdog)) {
+                    spawnWatchdog(dataDir, stateFile.resolveSibling(
+                        stateFile.getFileName().toString().replace(".properties", ".log")));
+                }
+
+                synchronized (attached) {
+                    attached.add(dataDir);
+                    if (!shutdownHookAdded) {
+                        shutdownHookAdded = true;
+                        addShutdownHook(new Runnable() {
+                            @Override public void run() {
+                                detachAll();
+                            }
+                        });
+                    }
+                }
+                return s;
+            }
+        });
+    }
+
+    /**
+     * Detaches one attachment of this JVM from the shared instance in a data directory.
+     */
+    static void detach(final Path dataDir) {
+        synchronized (attached) {
+            if (!attached.remove(dataDir)) {
+                return;
+            }
+        }
+
+        locked(dataDir, new Locked<Void>() {
+            @Override public Void run(Path stateFile) throws IOException {
+                final State s = State.load(stateFile);
+                if (s != null && s.holders.remove(ResourceRegistry.pid)) {
+                    if (s.holders.isEmpty()) {
+                        s.idleSince = System.currentTimeMillis();
+                    }
+                    s.store(stateFile);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static void detachAll() {
+        final List<Path> dataDirs;
+        synchronized (attached) {
+            dataDirs = new ArrayList<>(attached);
+        }
+        for (Path dataDir : dataDirs) {
+            try {
+                detach(dataDir);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to detach from the shared instance in " + dataDir + ".", e);
+            }
+        }
+    }
+
+    /**
+     * Checks the shared instance in a data directory once, dropping the attachments of dead JVMs and
+     * shutting the instance down if it's been idle for its timeout.
+     *
+     * @return the number of milliseconds until the instance should be checked again, or {@code 0}
+     *      if it isn't running anymore, or is watched by another watchdog
+     */
+    static long watch(final Path dataDir) {
+        return locked(dataDir, new Locked<Long>() {
+            @Override public Long run(Path stateFile) throws IOException {
+                final State s = State.load(stateFile);
+                if (s == null) {
+                    return 0L;
+                }
+                if (s.watchdog != null && !s.watchdog.equals(ResourceRegistry.pid) && isAlive(s.watchdog)) {
+                    return 0L;
+                }
+                if (!s.isServerAlive()) {
+                    release(s);
+                    deleteIfExists(stateFile);
+                    return 0L;
+                }
+
+                if (!ResourceRegistry.pid.equals(s.watchdog)) {
+                    ResourceRegistry.transfer(s.socket, s.portReserved ? s.port : null);
+                    s.watchdog = ResourceRegistry.pid;
+                }
+                for (Iterator<String> i = s.holders.iterator(); i.hasNext(); ) {
+                    final String holder = i.next();
+                    if (!isAlive(holder)) {
+                        logger.debug("Dropping the attachment of " + holder + ", which is no longer alive.");
+                        i.remove();
+                    }
+                }
+
+                final long now = System.currentTimeMillis();
+                if (!s.holders.isEmpty()) {
+                    s.idleSince = 0;
+                } else if (s.idleSince == 0) {
+                    s.idleSince = now;
+                } else if (now - s.idleSince >= s.idleTimeoutMillis) {
+                    logger.info("Shutting down the shared instance in " + dataDir + ", idle for "
+                        + (now - s.idleSince) + " ms.");
+                    terminate(s);
+                    release(s);
+                    deleteIfExists(stateFile);
+                    return 0L;
+                }
+                s.store(stateFile);
+                return Math.max(10, Math.min(maxPollMillis, s.idleTimeoutMillis / 2));
+            }
+        });
+    }
+
+    /**
+     * Terminates the server, which shuts down cleanly on {@code SIGTERM}, and kills it if it hasn't
+     * exited within a minute.
+     */
+    private static void terminate(State s) {
+        final long start = System.nanoTime();
+        ShutdownCoordinator.signal(s.pidFile, "TERM");
+        while (s.isServerAlive()) {
+            if (millisSince(start) > terminateTimeoutMillis) {
+                logger.warn("The shared instance didn't terminate, killing it.");
+                ShutdownCoordinator.signal(s.pidFile, "KILL");
+                return;
+            }
+            sleep(10);
+        }
+    }
+
+    private static void release(State s) {
+        ResourceRegistry.releaseSocket(s.socket);
+        if (s.portReserved) {
+            ResourceRegistry.releasePort(s.port);
+        }
+    }
+
+    private static void spawnWatchdog(Path dataDir, Path log) throws IOException {
+        final ProcessBuilder pb = new ProcessBuilder(
+            path(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", System.getProperty("java.class.path"),
+            "-Djmysqld.registry=" + ResourceRegistry.directory(),
+            SharedInstances.class.getName(),
+            dataDir.toString());
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(log.toFile()));
+        pb.start();
+    }
+
+    /**
+     * Runs a task holding the lock of the state file of an instance, which is only held by one thread
+     * of the JVM at a time, since a JVM can't hold overlapping locks of the same file.
+     */
+    private static <T> T locked(Path dataDir, Locked<T> task) {
+        final Path dir = ResourceRegistry.directory();
+        final String name = "shared-" + sha1(dataDir.toAbsolutePath().toString());
+        final Object monitor = monitors.computeIfAbsent(dataDir.toAbsolutePath(), d -> new Object());
+        synchronized (monitor) {
+            try {
+                createDirectories(dir);
+                try (FileChannel channel = FileChannel.open(dir.resolve(name + ".lock"),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                     FileLock lock = channel.lock()) {
+
+                    return task.run(dir.resolve(name + ".properties"));
+                }
+            } catch (IOException e) {
+                throw new MySqlProcessException("Unable to update the state of the shared instance in "
+                    + dataDir + ".", e);
+            }
+        }
+    }
+
+    private interface Locked<T> {
+        T run(Path stateFile) throws IOException;
+    }
+
+    private SharedInstances() {}
+}
@@ -0,0 +1,202 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static net.hulte.jmysqld.MySqlProcess.startMySqlProcess;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import org.slf4j.Logger;
+
+/**
+ * Shuts down all registered instances when the JVM exits, using a single shutdown hook.
+ *
+ * <p>All instances are asked to shut down at once, and given a common deadline to exit. Instances
+ * still running at the deadline are sent {@code SIGTERM}, using the pid recorded by the server in
+ * its pid-file, and are killed along with their launcher if they haven't exited after a grace
+ * period. The time each instance took to exit is logged.</p>
+ *
+ * <p>The deadline defaults to 10 seconds, and may be set in milliseconds by the
+ * {@code jmysqld.shutdownTimeout} system property.</p>
+ */
+final class ShutdownCoordinator {
+
+    /**
+     * An instance shut down by the coordinator.
+     */
+    interface Participant {
+
+        Path getDataDir();
+
+        /**
+         * Requests the instance to shut down cleanly, without waiting for it to exit.
+         */
+        CompletableFuture<Void> requestShutdown();
+
+        /**
+         * Returns a future that is completed once the server process has exited.
+         */
+        CompletableFuture<Void> exited();
+
+        /**
+         * Returns the pid-file written by the server.
+         */
+        Path pidFile();
+
+        /**
+         * Forcibly terminates the process that launched the server, e.g. {@code mysqld_safe}, so that
+         * it doesn't restart a killed server.
+         */
+        void destroyLauncher();
+    }
+
+    private static final Logger logger = getLogger(ShutdownCoordinator.class);
+    private static final ShutdownCoordinator instance = new ShutdownCoordinator();
+    private static final long defaultTimeoutMillis = 10000;
+    private static final long killGraceMillis = 2000;
+
+    private final Set<Participant> participants = new LinkedHashSet<>();
+    private boolean shutdownHookAdded;
+
+
+    static ShutdownCoordinator shutdownCoordinator() {
+        return instance;
+    }
+
+    ShutdownCoordinator() {
+    }
+
+
+    /**
+     * Registers an instance to be shut down when the JVM exits. The instance is unregistered
+     * automatically once it has exited.
+     */
+    synchronized void register(final Participant p) {
+        participants.add(p);
+        p.exited().thenRun(() -> unregister(p));
+
+        if (!shutdownHookAdded) {
+            addShutdownHook(() -> shutdownAll(timeoutMillis()));
+            shutdownHookAdded = true;
+        }
+    }
+
+    private synchronized void unregister(Participant p) {
+        participants.remove(p);
+    }
+
+    private synchronized List<Participant> participants() {
+        return new ArrayList<>(participants);
+    }
+
+    /**
+     * Shuts down all registered instances in parallel, escalating to signals for those that haven't
+     * exited when the deadline passes.
+     *
+     * @return the instances that had to be killed
+     */
+    List<Participant> shutdownAll(long timeoutMillis) {
+        final List<Participant> running = participants();
+        if (running.isEmpty()) {
+            return running;
+        }
+
+        final long start = System.nanoTime();
+        final Map<Participant, Long> millis = new ConcurrentHashMap<>();
+        for (final Participant p : running) {
+            p.exited().thenRun(() -> millis.put(p, millisSince(start)));
+            try {
+                p.requestShutdown();
+            } catch (RuntimeException e) {
+                logger.warn("Unable to request shutdown of the instance in " + p.getDataDir() + ".", e);
+            }
+        }
+
+        final List<Participant> killed = list();
+        if (!awaitExit(running, timeoutMillis)) {
+            final List<Participant> stuck = notExited(running);
+            for (Participant p : stuck) {
+                logger.warn("The instance in " + p.getDataDir() + " didn't shut down within "
+                    + timeoutMillis + " ms, terminating it.");
+                signal(p.pidFile(), "TERM");
+            }
+
+            if (!awaitExit(stuck, killGraceMillis)) {
+                for (Participant p : notExited(stuck)) {
+                    logger.warn("The instance in " + p.getDataDir() + " didn't terminate, killing it.");
+                    p.destroyLauncher();
+                    signal(p.pidFile(), "KILL");
+                    killed.add(p);
+                }
+                awaitExit(killed, killGraceMillis);
+            }
+        }
+
+        final StringBuilder report = new StringBuilder();
+        for (Participant p : running) {
+            final Long m = millis.get(p);
+            report.append("\n  ").append(p.getDataDir()).append(": ")
+                .append(m == null ? "still running" : m + " ms")
+                .append(killed.contains(p) ? " (killed)" : "");
+        }
+        logger.info("Shut down " + running.size() + " instances in " + millisSince(start) + " ms:" + report);
+        return killed;
+    }
+
+    private static boolean awaitExit(List<Participant> participants, long timeoutMillis) {
+        final CompletableFuture<?>[] exits = new CompletableFuture<?>[participants.size()];
+        for (int i = 0; i < exits.length; i++) {
+            exits[i] = participants.get(i).exited();
+        }
+
+        try {
+            CompletableFuture.allOf(exits).get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException | ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static List<Participant> notExited(List<Participant> participants) {
+        final List<Participant> result = list();
+        for (Participant p : participants) {
+            if (!p.exited().isDone()) {
+                result.add(p);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sends a signal, e.g. {@code TERM} or {@code KILL}, to the process whose pid is in a pid-file.
+     */
+    static void signal(Path pidFile, String signal) {
+        final String pid;
+        try {
+            pid = readPid(pidFile);
+        } catch (IOException e) {
+            logger.warn("Unable to read the pid-file " + pidFile + ".", e);
+            return;
+        }
+        if (pid == null) {
+            logger.warn("No pid in " + pidFile + ".");
+            return;
+        }
+
+        try {
+            startMySqlProcess(new ProcessBuilder("kill", "-" + signal, pid)).waitForCompletion();
+        } catch (RuntimeException e) {
+            logger.warn("Unable to send SIG" + signal + " to " + pid + ".", e);
+        }
+    }
+
+    private static long timeoutMillis() {
+        return Long.getLong("jmysqld.shutdownTimeout", defaultTimeoutMillis);
+    }
+}
@@ -0,0 +1,203 @@
+package net.hulte.jmysqld;
+
+import java.io.*;
+
+/**
+ * Splits a stream of SQL into statements, the way the {@code mysql} client does, without reading more
+ * than one statement into memory.
+ *
+ * <p>Statements are delimited by {@code ;}, or by the delimiter set by a {@code DELIMITER} command.
+ * Delimiters within quoted strings, quoted identifiers and comments are ignored. Line comments are
+ * dropped, while {@code /* ... *}{@code /} comments are kept since they may be versioned,
+ * executable comments.</p>
+ */
+final class SqlSplitter {
+
+    private static final int eof = -1;
+
+    private final Reader in;
+    private String delimiter = ";";
+    private int peeked = -2;
+
+
+    SqlSplitter(Reader in) {
+        this.in = in.markSupported() ? in : new BufferedReader(in, 64 * 1024);
+    }
+
+
+    /**
+     * Returns the next statement, without its delimiter, or {@code null} at the end of the stream.
+     */
+    String next() throws IOException {
+        final StringBuilder statement = new StringBuilder();
+
+        while (true) {
+            final int c = read();
+            if (c == eof) {
+                final String last = statement.toString().trim();
+                return last.isEmpty() ? null : last;
+            }
+
+            // leading whitespace is dropped, so that an empty statement is one that hasn't started yet
+            if (statement.length() == 0) {
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                if ((c == 'd' || c == 'D') && readDelimiterCommand()) {
+                    continue;
+                }
+            }
+
+            switch (c) {
+                case '\'':
+                case '"':
+                case '`':
+                    statement.append((char) c);
+                    readQuoted(c, statement);
+                    break;
+                case '#':
+                    skipLine(statement);
+                    break;
+                case '-':
+                    if (peek() == '-') {
+                        read();
+                        final int after = peek();
+                        if (after == eof || Character.isWhitespace(after)) {
+                            skipLine(statement);
+                        } else {
+                            statement.append("--");
+                        }
+                    } else {
+                        statement.append('-');
+                    }
+                    break;
+                case '/':
+                    statement.append('/');
+                    if (peek() == '*') {
+                        statement.append((char) read());
+                        readComment(statement);
+                    }
+                    break;
+                default:
+                    statement.append((char) c);
+            }
+
+            if (endsWithDelimiter(statement)) {
+                statement.setLength(statement.length() - delimiter.length());
+                final String result = statement.toString().trim();
+                if (!result.isEmpty()) {
+                    return result;
+                }
+                statement.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of a {@code DELIMITER} command, if the line starting with the {@code d} just read
+     * is one.
+     */
+    private boolean readDelimiterCommand() throws IOException {
+        final String keyword = "delimiter";
+        in.mark(keyword.length() + 1);
+
+        for (int i = 1; i < keyword.length(); i++) {
+            final int c = in.read();
+            if (c == eof || Character.toLowerCase(c) != keyword.charAt(i)) {
+                in.reset();
+                return false;
+            }
+        }
+        final int separator = in.read();
+        if (separator != ' ' && separator != '\t') {
+            in.reset();
+            return false;
+        }
+
+        final StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != eof && c != '\n') {
+            line.append((char) c);
+        }
+        delimiter = line.toString().trim();
+        return true;
+    }
+
+    private void readQuoted(int quote, StringBuilder statement) throws IOException {
+        while (true) {
+            final int c = read();
+            if (c == eof) {
+                return;
+            }
+            statement.append((char) c);
+
+            if (c == '\\' && quote != '`') {
+                final int escaped = read();
+                if (escaped != eof) {
+                    statement.append((char) escaped);
+                }
+            } else if (c == quote) {
+                if (peek() == quote) {
+                    statement.append((char) read());
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void readComment(StringBuilder statement) throws IOException {
+        int previous = 0;
+        while (true) {
+            final int c = read();
+            if (c == eof) {
+                return;
+            }
+            statement.append((char) c);
+            if (previous == '*' && c == '/') {
+                return;
+            }
+            previous = c;
+        }
+    }
+
+    private void skipLine(StringBuilder statement) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != eof && c != '\n');
+
+        if (statement.length() > 0) {
+            statement.append('\n');
+        }
+    }
+
+    private boolean endsWithDelimiter(StringBuilder statement) {
+        final int start = statement.length() - delimiter.length();
+        if (start < 0) {
+            return false;
+        }
+        for (int i = 0; i < delimiter.length(); i++) {
+            if (statement.charAt(start + i) != delimiter.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (peeked != -2) {
+            final int result = peeked;
+            peeked = -2;
+            return result;
+        }
+        return in.read();
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = in.read();
+        }
+        return peeked;
+    }
+}
@@ -0,0 +1,55 @@
+package net.hulte.jmysqld;
+
+/**
+ * Keeps the last lines written to it, up to a fixed number of characters, so that the output of a
+ * process can be kept for diagnostics without retaining all of it.
+ */
+final class TailBuffer implements ProcessPump.LineSink {
+
+    private final char[] buffer;
+    private int next;
+    private long total;
+
+
+    TailBuffer(int capacity) {
+        this.buffer = new char[capacity];
+    }
+
+
+    @Override
+    public synchronized void line(String line) {
+        append(line);
+        append("\n");
+    }
+
+    private void append(String text) {
+        final int length = text.length();
+        final int skipped = Math.max(0, length - buffer.length);
+
+        for (int i = skipped; i < length; ) {
+            final int n = Math.min(length - i, buffer.length - next);
+            text.getChars(i, i + n, buffer, next);
+            next = (next + n) % buffer.length;
+            i += n;
+        }
+        total += length;
+    }
+
+    /**
+     * Returns the number of characters written, including those no longer kept.
+     */
+    synchronized long total() {
+        return total;
+    }
+
+    /**
+     * Returns the kept text, prefixed by {@code [...]} if earlier text has been dropped.
+     */
+    @Override
+    public synchronized String toString() {
+        if (total <= buffer.length) {
+            return new String(buffer, 0, (int) total);
+        }
+        return "[...]" + new String(buffer, next, buffer.length - next) + new String(buffer, 0, next);
+    }
+}
@@ -0,0 +1,294 @@
+package net.hulte.jmysqld;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Reads the entries of a tar archive from a stream, one at a time, as written by GNU tar in the
+ * ustar, GNU or pax formats. Long names are read from GNU {@code L}/{@code K} entries and pax
+ * extended headers.
+ */
+final class TarArchive {
+
+    /**
+     * The header of an entry in the archive.
+     */
+    static final class Entry {
+
+        final String name;
+        final char type;
+        final int mode;
+        final long size;
+        final String linkName;
+
+        Entry(String name, char type, int mode, long size, String linkName) {
+            this.name = name;
+            this.type = type;
+            this.mode = mode;
+            this.size = size;
+            this.linkName = linkName;
+        }
+
+        boolean isFile() {
+            return type == '0' || type == '\0' || type == '7';
+        }
+
+        boolean isDirectory() {
+            return type == '5';
+        }
+
+        boolean isSymbolicLink() {
+            return type == '2';
+        }
+
+        boolean isHardLink() {
+            return type == '1';
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final int blockSize = 512;
+    private static final Charset utf8 = Charset.forName("UTF-8");
+
+    private final InputStream in;
+    private final byte[] header = new byte[blockSize];
+    private final byte[] skipBuffer = new byte[64 * 1024];
+    private long unread;
+    private long padding;
+
+
+    TarArchive(InputStream in) {
+        this.in = in;
+    }
+
+
+    /**
+     * Returns the next entry, skipping any unread contents of the current one, or {@code null} at the
+     * end of the archive.
+     */
+    Entry next() throws IOException {
+        skip(unread + padding);
+        unread = 0;
+        padding = 0;
+
+        String longName = null;
+        String longLinkName = null;
+        Map<String, String> pax = Collections.emptyMap();
+
+        while (true) {
+            if (!readBlock(header) || isZero(header)) {
+                return null;
+            }
+
+            final char type = (char) header[156];
+            final long size = parseNumber(header, 124, 12);
+
+            switch (type) {
+                case 'L':
+                    longName = readString(size);
+                    continue;
+                case 'K':
+                    longLinkName = readString(size);
+                    continue;
+                case 'x':
+                    pax = parsePax(readString(size));
+                    continue;
+                case 'g':
+                    readString(size);
+                    continue;
+                default:
+            }
+
+            String name = string(header, 0, 100);
+            if (string(header, 257, 5).equals("ustar")) {
+                final String prefix = string(header, 345, 155);
+                if (!prefix.isEmpty()) {
+                    name = prefix + "/" + name;
+                }
+            }
+
+            if (pax.containsKey("path")) {
+                name = pax.get("path");
+            } else if (longName != null) {
+                name = longName;
+            }
+
+            String linkName = string(header, 157, 100);
+            if (pax.containsKey("linkpath")) {
+                linkName = pax.get("linkpath");
+            } else if (longLinkName != null) {
+                linkName = longLinkName;
+            }
+
+            final long contentSize = pax.containsKey("size") ? Long.parseLong(pax.get("size")) : size;
+            final boolean hasContents = type != '1' && type != '2' && type != '5';
+            unread = hasContents ? contentSize : 0;
+            padding = padding(unread);
+
+            return new Entry(name, type, (int) parseNumber(header, 100, 8), unread, linkName);
+        }
+    }
+
+    /**
+     * Returns a stream of the contents of the current entry.
+     */
+    InputStream contents() {
+        return new InputStream() {
+            @Override public int read() throws IOException {
+                final byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                if (unread == 0) {
+                    return -1;
+                }
+                final int n = in.read(b, off, (int) Math.min(len, unread));
+                if (n == -1) {
+                    throw new EOFException("Unexpected end of archive.");
+                }
+                unread -= n;
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Reads the contents of the current entry, which must fit in an array.
+     */
+    byte[] readContents() throws IOException {
+        final byte[] result = new byte[(int) unread];
+        readFully(result, result.length);
+        unread = 0;
+        return result;
+    }
+
+    private String readString(long size) throws IOException {
+        final byte[] b = new byte[(int) size];
+        readFully(b, b.length);
+        skip(padding(size));
+
+        int length = b.length;
+        while (length > 0 && b[length - 1] == 0) {
+            length--;
+        }
+        return new String(b, 0, length, utf8);
+    }
+
+    /**
+     * Parses the records of a pax extended header, each of the form {@code "<length> <key>=<value>\n"}.
+     */
+    static Map<String, String> parsePax(String records) {
+        final Map<String, String> result = new HashMap<>();
+        final byte[] bytes = records.getBytes(utf8);
+
+        int pos = 0;
+        while (pos < bytes.length) {
+            int space = pos;
+            while (space < bytes.length && bytes[space] != ' ') {
+                space++;
+            }
+            if (space == bytes.length) {
+                break;
+            }
+
+            final int length = Integer.parseInt(new String(bytes, pos, space - pos, utf8));
+            final String record = new String(bytes, space + 1, length - (space - pos) - 2, utf8);
+            final int equals = record.indexOf('=');
+            if (equals > 0) {
+                result.put(record.substring(0, equals), record.substring(equals + 1));
+            }
+            pos += length;
+        }
+        return result;
+    }
+
+    /**
+     * Parses a numeric header field, in octal or, for large values, in GNU base-256.
+     */
+    static long parseNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            long result = header[offset] & 0x7f;
+            for (int i = 1; i < length; i++) {
+                result = (result << 8) | (header[offset + i] & 0xff);
+            }
+            return result;
+        }
+
+        long result = 0;
+        for (int i = offset; i < offset + length; i++) {
+            final byte b = header[i];
+            if (b >= '0' && b <= '7') {
+                result = result * 8 + (b - '0');
+            } else if (b == 0 || (b == ' ' && result > 0)) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static String string(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, utf8);
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long padding(long size) {
+        return (blockSize - size % blockSize) % blockSize;
+    }
+
+    /**
+     * Reads a block, returning {@code false} at the end of the stream.
+     */
+    private boolean readBlock(byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            final int n = in.read(block, read, block.length - read);
+            if (n == -1) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("Unexpected end of archive.");
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    private void readFully(byte[] b, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int n = in.read(b, read, length - read);
+            if (n == -1) {
+                throw new EOFException("Unexpected end of archive.");
+            }
+            read += n;
+        }
+    }
+
+    private void skip(long bytes) throws IOException {
+        while (bytes > 0) {
+            final int n = in.read(skipBuffer, 0, (int) Math.min(skipBuffer.length, bytes));
+            if (n == -1) {
+                throw new EOFException("Unexpected end of archive.");
+            }
+            bytes -= n;
+        }
+    }
+}
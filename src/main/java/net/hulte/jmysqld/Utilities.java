@@ -1,34 +1,60 @@
 package net.hulte.jmysqld;
 
 import static java.util.Arrays.asList;
+import static org.slf4j.LoggerFactory.getLogger;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.*;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.*;
+import org.slf4j.Logger;
 
 final class Utilities {
 
+    private static final Logger logger = getLogger(Utilities.class);
+    private static final ExecutorService completions = Executors.newCachedThreadPool(
+        namedDaemons("jmysqld-completion"));
+
     /**
      * Reads text from an input stream using the default charset. The resulting string is
      * trimmed before being returned.
      */
     static String readText(InputStream in) throws IOException {
-        String result = "";
+        return readText(in, Charset.defaultCharset());
+    }
 
-        final BufferedReader r = asReader(in);
-        final char[] buffer = new char[100];
+    /**
+     * Reads text from an input stream using a specific charset. The resulting string is
+     * trimmed before being returned.
+     */
+    static String readText(InputStream in, Charset charset) throws IOException {
+        return readUntrimmedText(in, charset).trim();
+    }
+
+    /**
+     * Reads text from an input stream using a specific charset, returning it as is.
+     */
+    static String readUntrimmedText(InputStream in, Charset charset) throws IOException {
+        final StringBuilder result = new StringBuilder();
+
+        final Reader r = new InputStreamReader(in, charset);
+        final char[] buffer = new char[8192];
 
         while (true) {
             final int numRead = r.read(buffer, 0, buffer.length);
             if (numRead == -1) {
                 break;
             }
-            result += new String(buffer, 0, numRead);
+            result.append(buffer, 0, numRead);
         }
 
-        return result.trim();
+        return result.toString();
     }
 
     /**
@@ -49,6 +75,28 @@ final class Utilities {
         t.start();
     }
 
+    /**
+     * Returns a thread factory creating daemon threads named after a common prefix.
+     */
+    static ThreadFactory namedDaemons(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Returns a future completed like another one, but on a thread of its own, so that the stages
+     * chained onto it by callers never run on, and can't block, the shared threads of the library.
+     */
+    static <T> CompletableFuture<T> handedOff(CompletableFuture<T> future) {
+        return future.whenCompleteAsync((result, e) -> {}, completions);
+    }
+
     static String userName() {
         return System.getProperty("user.name");
     }
@@ -87,6 +135,98 @@ final class Utilities {
         return FileSystems.getDefault().getPath(first, more);
     }
 
+    /**
+     * Copies a regular file by transferring its contents channel-to-channel, leaving it to the
+     * operating system to avoid copying the data through user-space where possible.
+     */
+    static void copyFile(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW,
+                 StandardOpenOption.WRITE)) {
+
+            final long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory including all of its contents, logging rather than throwing a
+     * failure to do so.
+     */
+    static void deleteQuietly(Path path) {
+        try {
+            deleteRecursively(path);
+        } catch (IOException e) {
+            logger.warn("Unable to delete " + path + ".", e);
+        }
+    }
+
+    /**
+     * Reads the pid held by a pid-file.
+     *
+     * @return the pid, or {@code null} if the pid-file doesn't hold one, e.g. while it's being written
+     * @throws IOException if unable to read the pid-file
+     */
+    static String readPid(Path pidFile) throws IOException {
+        final String pid = new String(Files.readAllBytes(pidFile), Charset.forName("US-ASCII")).trim();
+        return pid.matches("\\d+") ? pid : null;
+    }
+
+    /**
+     * Deletes a file, or a directory including all of its contents. Does nothing if the path
+     * doesn't exist.
+     */
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult postVisitDirectory(Path dir, IOException e)
+                    throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Returns the hex-encoded SHA-1 digest of a string.
+     */
+    static String sha1(String str) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(str.getBytes("UTF-8"));
+            return toHex(digest);
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        final StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16))
+                .append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
     static void addShutdownHook(Runnable hook) {
         Runtime.getRuntime().addShutdownHook(new Thread(hook));
     }
@@ -107,6 +247,26 @@ final class Utilities {
         });
     }
 
+    /**
+     * Waits for a future, rethrowing the unchecked exception it failed with as is.
+     */
+    static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     static void execute(Interruptible task) {
         try {
             task.run();
@@ -0,0 +1,67 @@
+package net.hulte.jmysqld;
+
+import java.util.regex.*;
+
+/**
+ * A MySQL server version, e.g. {@code 5.5.27}. Any suffix following the numeric version, such as
+ * {@code -log}, is ignored.
+ */
+final class Version implements Comparable<Version> {
+
+    private static final Pattern versionPattern = Pattern.compile("^(\\d+)\\.(\\d+)(?:\\.(\\d+))?.*");
+
+    final int major;
+    final int minor;
+    final int patch;
+
+
+    /**
+     * @throws IllegalArgumentException if {@code version} doesn't start with a version number
+     */
+    static Version parse(String version) {
+        final Matcher m = versionPattern.matcher(version);
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Unable to parse version " + version + ".");
+        }
+
+        return new Version(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)),
+            m.group(3) == null ? 0 : Integer.parseInt(m.group(3)));
+    }
+
+    Version(int major, int minor, int patch) {
+        this.major = major;
+        this.minor = minor;
+        this.patch = patch;
+    }
+
+
+    boolean isAtLeast(int major, int minor, int patch) {
+        return compareTo(new Version(major, minor, patch)) >= 0;
+    }
+
+    @Override
+    public int compareTo(Version o) {
+        if (major != o.major) {
+            return Integer.compare(major, o.major);
+        }
+        if (minor != o.minor) {
+            return Integer.compare(minor, o.minor);
+        }
+        return Integer.compare(patch, o.patch);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Version && compareTo((Version) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return (major * 1000 + minor) * 1000 + patch;
+    }
+
+    @Override
+    public String toString() {
+        return major + "." + minor + "." + patch;
+    }
+}
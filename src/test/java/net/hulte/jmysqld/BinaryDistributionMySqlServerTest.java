@@ -14,6 +14,7 @@ import java.io.*;
 import java.nio.file.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.junit.*;
 import org.junit.rules.*;
@@ -52,6 +53,23 @@ public class BinaryDistributionMySqlServerTest {
         assertThat(contents(dataDir), hasItem("mysql"));
     }
 
+    @Test
+    public void data_directories_are_initialized_from_a_cached_template() {
+        final MySqlServer server = mySqlServerFromBinaryDistribution(distPath(), newDataDir());
+        final Path d1 = newDataDir();
+        final Path d2 = newDataDir();
+
+        server.initializeDataDirectory(d1);
+        server.initializeDataDirectory(d2);
+
+        assertThat(contents(d1), hasItem("mysql"));
+        assertThat(contents(d2), hasItem("mysql"));
+
+        final MySqlServerInstance i = server.start(d2, defaultSpec());
+        assertTrue(i.isRunning());
+        i.shutdown();
+    }
+
     @Test
     public void instace_can_be_started_and_stopped() {
         final MySqlServer server = theServer();
@@ -64,6 +82,60 @@ public class BinaryDistributionMySqlServerTest {
         assertFalse(instance.isRunning());
     }
 
+    @Test
+    public void instance_launched_without_mysqld_safe_can_be_started_and_stopped() {
+        final MySqlServerInstance instance = theServer().start(newPreparedDataDir(),
+                defaultSpec().option(DIRECT_LAUNCH));
+
+        assertTrue(instance.isRunning());
+        instance.shutdown();
+        assertFalse(instance.isRunning());
+    }
+
+    @Test
+    public void several_instances_are_started_concurrently_on_free_ports() {
+        final Map<Path, InstanceSpec> specs = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            specs.put(newPreparedDataDir(), defaultSpec().option(AUTO_PORT));
+        }
+
+        final List<MySqlServerInstance> instances = theServer().startAll(specs);
+
+        final Set<Integer> ports = set();
+        for (MySqlServerInstance i : instances) {
+            assertTrue(i.isRunning());
+            assertNotNull(i.getPort());
+            ports.add(i.getPort());
+            i.shutdown();
+        }
+        assertThat(ports.size(), equalTo(3));
+    }
+
+    @Test
+    public void instances_are_shut_down_if_any_instance_fails_to_start() {
+        final Map<Path, InstanceSpec> specs = new LinkedHashMap<>();
+        specs.put(newPreparedDataDir(), defaultSpec());
+        specs.put(newDataDir(), defaultSpec());
+
+        thrown.expect(MySqlProcessException.class);
+        thrown.expectMessage("Failed to start");
+
+        theServer().startAll(specs);
+    }
+
+    @Test
+    public void changes_made_by_an_ephemeral_instance_are_discarded() throws Exception {
+        final Path dataDir = newPreparedDataDir();
+        final MySqlServerInstance i = theServer().start(dataDir,
+                defaultSpec().option(EPHEMERAL).port(mysqlPort()));
+
+        update("create database ephemeral");
+        i.shutdown();
+
+        assertThat(contents(dataDir), not(hasItem("ephemeral")));
+        assertThat(contents(dataDir), hasItem("error.log"));
+    }
+
     @Test
     public void exception_is_thrown_if_server_fails_to_start() {
         final Path dataDir = newDataDir();
@@ -91,6 +163,48 @@ public class BinaryDistributionMySqlServerTest {
         i1.shutdown();
     }
 
+    @Test
+    public void instance_fails_fast_with_the_error_log_if_its_port_is_in_use() throws Exception {
+        final MySqlServerInstance i1 = theServer().start(newPreparedDataDir(),
+                defaultSpec().port(mysqlPort()));
+
+        try {
+            theServer().start(newPreparedDataDir(), defaultSpec().port(mysqlPort()));
+            fail();
+        } catch (MySqlProcessException e) {
+            assertThat(e.getMessage(), containsString("Address already in use"));
+        } finally {
+            i1.shutdown();
+        }
+    }
+
+    @Test
+    public void error_log_events_are_passed_to_the_listener() {
+        final List<ErrorLogEvent> events = new CopyOnWriteArrayList<>();
+        final MySqlServerInstance i = theServer().start(newPreparedDataDir(),
+                defaultSpec().errorLogListener(new ErrorLogListener() {
+                    @Override public void onEvent(ErrorLogEvent event) {
+                        events.add(event);
+                    }
+                }));
+
+        i.shutdown();
+        assertFalse(events.isEmpty());
+    }
+
+    @Test
+    public void lifecycle_phases_are_reported_to_listeners() {
+        final MySqlServer server = mySqlServerFromBinaryDistribution(distPath());
+        final LifecycleStatistics stats = new LifecycleStatistics();
+        server.addLifecycleListener(stats);
+
+        final Path dataDir = newDataDir();
+        server.initializeDataDirectory(dataDir);
+        server.start(dataDir, defaultSpec()).shutdown();
+
+        assertThat(stats.getCounts().keySet().size(), equalTo(LifecyclePhase.values().length));
+    }
+
     @Test
     public void instance_started_with_specific_port_can_be_connected_to_with_jdbc() throws Exception {
         final Path dataDir = newPreparedDataDir();
@@ -124,6 +238,142 @@ public class BinaryDistributionMySqlServerTest {
         i.shutdown();
     }
 
+    @Test
+    public void server_options_are_merged_with_the_defaults_file() throws Exception {
+        final Path dataDir = newPreparedDataDir();
+        final Path defaultsFile = dataDir.resolve("settings.cfg");
+
+        try (PrintWriter w = new PrintWriter(newBufferedWriter(defaultsFile, defaultCharset()))) {
+            w.println("[mysqld]");
+            w.println("port=" + mysqlPort());
+            w.println("max_connections=10");
+        }
+
+        final MySqlServerInstance i = theServer().start(dataDir, defaultSpec()
+                .defaultsFile(defaultsFile)
+                .maxConnections(42)
+                .tableOpenCache(100));
+
+        final ResultSet res = query("select @@max_connections, @@table_open_cache");
+        assertTrue(res.next());
+        assertThat(res.getInt(1), equalTo(42));
+        assertThat(res.getInt(2), equalTo(100));
+
+        i.shutdown();
+    }
+
+    @Test
+    public void instance_is_reset_to_checkpoint() throws Exception {
+        final MySqlServerInstance i = theServer().start(newPreparedDataDir(),
+                defaultSpec().port(mysqlPort()));
+
+        update("create database checkpointed");
+        update("create table checkpointed.t (id int primary key)");
+        update("insert into checkpointed.t values (1)");
+        i.checkpoint();
+
+        update("insert into checkpointed.t values (2)");
+        update("create table checkpointed.created (id int)");
+        update("create database created");
+        i.resetToCheckpoint();
+
+        final ResultSet res = query("select count(*) from checkpointed.t");
+        assertTrue(res.next());
+        assertThat(res.getInt(1), equalTo(1));
+        assertFalse(query("show tables from checkpointed like 'created'").next());
+        assertFalse(query("show databases like 'created'").next());
+
+        i.resetToCheckpoint();
+        i.shutdown();
+    }
+
+    @Test
+    public void fixtures_are_loaded_from_sql_and_csv_files() throws Exception {
+        final Path dataDir = newPreparedDataDir();
+        final Path dump = dataDir.resolve("dump.sql");
+        final Path csv = dataDir.resolve("t2.csv");
+
+        try (PrintWriter w = new PrintWriter(newBufferedWriter(dump, defaultCharset()))) {
+            w.println("CREATE DATABASE fixtures;");
+            w.println("USE fixtures;");
+            w.println("CREATE TABLE t1 (id int primary key, s varchar(10));");
+            w.println("CREATE TABLE t2 (id int primary key, s varchar(10));");
+            w.println("INSERT INTO t1 VALUES (1, 'a;b'), (2, 'c');");
+            w.println("INSERT INTO t2 VALUES (1, 'd');");
+        }
+        try (PrintWriter w = new PrintWriter(newBufferedWriter(csv, defaultCharset()))) {
+            w.println("id,s");
+            w.println("2,\"e,f\"");
+        }
+
+        final MySqlServerInstance i = theServer().start(dataDir, defaultSpec().port(mysqlPort()));
+        i.load(new LoadSpec().sqlFile(dump));
+        final LoadStatistics stats = i.load(new LoadSpec()
+            .csvFile(csv, "fixtures", "t2")
+            .csvHeader(true));
+
+        assertThat(stats.getRows(), equalTo(1L));
+        final ResultSet res = query("select (select count(*) from fixtures.t1), "
+            + "(select s from fixtures.t2 where id = 2)");
+        assertTrue(res.next());
+        assertThat(res.getInt(1), equalTo(2));
+        assertThat(res.getString(2), equalTo("e,f"));
+
+        i.shutdown();
+    }
+
+    @Test
+    public void data_directory_is_restored_from_a_snapshot() throws Exception {
+        final Path dataDir = newPreparedDataDir();
+        final MySqlServerInstance i1 = theServer().start(dataDir, defaultSpec().port(mysqlPort()));
+        update("create database migrated");
+        i1.shutdown();
+
+        final Path snapshot = newDataDir().resolveSibling("snapshots").resolve(randomUUID().toString());
+        theServer().snapshot(dataDir, snapshot, true);
+        final Path restored = newDataDir();
+        theServer().restore(snapshot, restored);
+
+        final MySqlServerInstance i2 = theServer().start(restored, defaultSpec().port(mysqlPort()));
+        assertTrue(query("show databases like 'migrated'").next());
+        i2.shutdown();
+    }
+
+
+    @Test
+    public void leased_database_is_cloned_from_a_template_and_accessible_by_its_user() throws Exception {
+        final MySqlServerInstance i = theServer().start(newPreparedDataDir(), defaultSpec().port(mysqlPort()));
+        i.execute("CREATE DATABASE template; CREATE TABLE template.t (id int primary key); "
+            + "INSERT INTO template.t VALUES (1), (2);");
+
+        try (SchemaLeaser leaser = new SchemaLeaser(i, "template", new PoolSpec());
+                SchemaLeaser.Lease l = leaser.lease()) {
+            Class.forName("com.mysql.jdbc.Driver");
+            try (Connection conn = DriverManager.getConnection("jdbc:mysql://localhost:" + mysqlPort()
+                    + "/" + l.getDatabase(), l.getUser(), l.getPassword())) {
+                final ResultSet res = conn.createStatement().executeQuery("select count(*) from t");
+                assertTrue(res.next());
+                assertThat(res.getInt(1), equalTo(2));
+            }
+        }
+
+        i.shutdown();
+    }
+
+    @Test
+    public void instance_is_sized_by_its_memory_budget() throws Exception {
+        final MySqlServerInstance i = theServer().start(newPreparedDataDir(),
+            defaultSpec().port(mysqlPort()).memoryBudget(64L * 1024 * 1024));
+
+        final ResultSet res = query("select @@innodb_buffer_pool_size, @@performance_schema");
+        assertTrue(res.next());
+        assertThat(res.getLong(1), equalTo(32L * 1024 * 1024));
+        assertThat(res.getInt(2), equalTo(0));
+        assertTrue(i.getResidentSetSize() < 512L * 1024 * 1024);
+
+        i.shutdown();
+    }
+
 
     InstanceSpec defaultSpec() {
         return new InstanceSpec().option(AUTO_SHUTDOWN);
@@ -171,6 +421,13 @@ public class BinaryDistributionMySqlServerTest {
         return stmt.executeQuery(query);
     }
 
+    static void update(String sql) throws Exception {
+        Class.forName("com.mysql.jdbc.Driver");
+        try (Connection conn = DriverManager.getConnection("jdbc:mysql://localhost:" + mysqlPort(), "root", "")) {
+            conn.createStatement().executeUpdate(sql);
+        }
+    }
+
     static List<String> contents(Path p) {
         final String[] contents = p.toFile().list();
         return contents == null
@@ -0,0 +1,61 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.DataDirectoryReclaimer.*;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.nio.file.*;
+import java.util.concurrent.Future;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class DataDirectoryReclaimerTest {
+
+    final Path dir = path("target", "reclaimer-test", randomUUID().toString()).toAbsolutePath();
+
+
+    @Before
+    public void createDir() throws Exception {
+        createDirectories(dir.resolve("mysql"));
+        write(dir.resolve("ibdata1"), new byte[64 * 1024]);
+        write(dir.resolve("mysql").resolve("user.frm"), new byte[64 * 1024]);
+    }
+
+    @Test
+    public void directory_is_reclaimed_in_the_background() throws Exception {
+        dataDirectoryReclaimer().reclaim(dir).get();
+        assertFalse(exists(dir));
+    }
+
+    @Test
+    public void directory_is_reclaimed_once_the_process_has_exited() throws Exception {
+        final Process p = new ProcessBuilder("sh", "-c", "echo $$; exec sleep 0.3").start();
+        final String pid = asReader(p.getInputStream()).readLine();
+        final boolean[] released = {false};
+
+        final Future<?> reclaimed = dataDirectoryReclaimer().reclaimAfterExit(pid, () -> {
+            released[0] = !ResourceRegistry.isAlive(pid);
+        }, dir);
+        sleep(100);
+        assertTrue(exists(dir));
+
+        reclaimed.get();
+        assertTrue(released[0]);
+        assertFalse(exists(dir));
+    }
+
+    @Test
+    public void deletion_is_throttled() throws Exception {
+        final long start = System.nanoTime();
+
+        assertThat(delete(dir, 1024 * 1024), equalTo(128L * 1024));
+        assertTrue(millisSince(start) >= 100);
+        assertFalse(exists(dir));
+    }
+}
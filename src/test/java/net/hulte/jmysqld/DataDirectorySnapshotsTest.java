@@ -0,0 +1,85 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.DataDirectoryTemplatesTest.*;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class DataDirectorySnapshotsTest {
+
+    final Path dir = path("target", "snapshots-test", randomUUID().toString()).toAbsolutePath();
+    final Path dataDir = dir.resolve("data");
+
+
+    @Before
+    public void createDataDir() throws IOException {
+        createDirectories(dataDir.resolve("mysql"));
+        createDirectories(dataDir.resolve("test"));
+        write(dataDir.resolve("ibdata1"), "innodb".getBytes());
+        write(dataDir.resolve("auto.cnf"), "uuid".getBytes());
+        write(dataDir.resolve("mysql").resolve("user.frm"), "frm".getBytes());
+        write(dataDir.resolve("mysql").resolve("user.MYD"), "frm".getBytes());
+    }
+
+    @Test
+    public void data_directory_is_restored_from_snapshot() throws IOException {
+        for (boolean compress : new boolean[] {false, true}) {
+            final Path snapshot = dir.resolve("snapshot-" + compress);
+            final Path restored = dir.resolve("restored-" + compress);
+
+            DataDirectorySnapshots.snapshot(dataDir, snapshot, compress);
+            DataDirectorySnapshots.restore(snapshot, restored);
+
+            assertThat(textOf(restored.resolve("ibdata1")), equalTo("innodb"));
+            assertThat(textOf(restored.resolve("mysql").resolve("user.frm")), equalTo("frm"));
+            assertThat(textOf(restored.resolve("mysql").resolve("user.MYD")), equalTo("frm"));
+            assertTrue(isDirectory(restored.resolve("test")));
+            assertFalse(exists(restored.resolve("auto.cnf")));
+        }
+    }
+
+    @Test
+    public void identical_files_are_stored_once_and_shared_between_snapshots() throws IOException {
+        DataDirectorySnapshots.snapshot(dataDir, dir.resolve("s1"), false);
+        write(dataDir.resolve("ibdata1"), "changed".getBytes());
+        DataDirectorySnapshots.snapshot(dataDir, dir.resolve("s2"), false);
+
+        // the .frm and .MYD have the same contents, and only ibdata1 changed
+        assertThat(objects().size(), equalTo(3));
+        final Path restored = dir.resolve("restored");
+        DataDirectorySnapshots.restore(dir.resolve("s1"), restored);
+        assertThat(textOf(restored.resolve("ibdata1")), equalTo("innodb"));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void data_directory_in_use_cannot_be_snapshot() throws IOException {
+        write(dataDir.resolve("mysql.pid"), "123".getBytes());
+        DataDirectorySnapshots.snapshot(dataDir, dir.resolve("s"), false);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void snapshot_is_not_restored_into_a_non_empty_directory() throws IOException {
+        DataDirectorySnapshots.snapshot(dataDir, dir.resolve("s"), false);
+        DataDirectorySnapshots.restore(dir.resolve("s"), dataDir);
+    }
+
+
+    List<Path> objects() throws IOException {
+        final List<Path> result = list();
+        for (Path d : contents(dir.resolve(DataDirectorySnapshots.objectsDir))) {
+            result.addAll(contents(d));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,133 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class DataDirectoryTemplatesTest {
+
+    final Path cacheDir = newDir();
+    final DataDirectoryTemplates templates = new DataDirectoryTemplates(cacheDir);
+    final CountingInstaller installer = new CountingInstaller();
+
+
+    @Test
+    public void template_is_installed_once_and_cloned_into_each_data_directory() throws IOException {
+        final Path d1 = newDir();
+        final Path d2 = newDir();
+
+        templates.initialize(d1, "dist", "key", installer);
+        templates.initialize(d2, "dist", "key", installer);
+
+        assertThat(installer.count, equalTo(1));
+        for (Path d : list(d1, d2)) {
+            assertThat(textOf(d.resolve("ibdata1")), equalTo("innodb"));
+            assertThat(textOf(d.resolve("mysql").resolve("user.frm")), equalTo("frm"));
+        }
+    }
+
+    @Test
+    public void files_that_must_be_unique_per_data_directory_are_not_cloned() {
+        final Path d = newDir();
+
+        templates.initialize(d, "dist", "key", installer);
+
+        assertFalse(exists(d.resolve("auto.cnf")));
+        assertFalse(exists(d.resolve("template.properties")));
+    }
+
+    @Test
+    public void changed_key_installs_a_new_template_and_removes_the_stale_one() throws IOException {
+        templates.initialize(newDir(), "dist", "key1", installer);
+        templates.initialize(newDir(), "dist", "key2", installer);
+        templates.initialize(newDir(), "other-dist", "key1", installer);
+
+        assertThat(installer.count, equalTo(3));
+        assertThat(contents(cacheDir).size(), equalTo(2));
+    }
+
+    @Test
+    public void template_installed_concurrently_elsewhere_is_used() throws IOException {
+        final Path d = newDir();
+
+        templates.initialize(d, "dist", "key", new DataDirectoryTemplates.Installer() {
+            @Override public void install(Path dataDir) {
+                installer.install(dataDir);
+                installer.install(cacheDir.resolve(sha1("dist") + "-" + sha1("key")));
+            }
+        });
+
+        assertThat(textOf(d.resolve("ibdata1")), equalTo("innodb"));
+        assertThat(contents(cacheDir).size(), equalTo(1));
+    }
+
+
+    @Test(timeout = 10000)
+    public void stale_template_is_not_removed_while_being_cloned() throws Exception {
+        templates.initialize(newDir(), "dist", "key1", installer);
+
+        final DataDirectoryTemplates.GroupLock cloning = templates.lock("dist");
+        cloning.lockShared();
+        final Thread replacing = new Thread(new Runnable() {
+            @Override public void run() {
+                templates.initialize(newDir(), "dist", "key2", installer);
+            }
+        });
+        replacing.start();
+        replacing.join(200);
+
+        assertTrue(replacing.isAlive());
+        assertTrue(exists(cacheDir.resolve(sha1("dist") + "-" + sha1("key1"))));
+
+        cloning.unlockShared();
+        replacing.join();
+        assertFalse(exists(cacheDir.resolve(sha1("dist") + "-" + sha1("key1"))));
+        assertThat(installer.count, equalTo(2));
+    }
+
+    static class CountingInstaller implements DataDirectoryTemplates.Installer {
+        int count;
+
+        @Override public void install(Path dataDir) {
+            count++;
+            try {
+                createDirectories(dataDir.resolve("mysql"));
+                write(dataDir.resolve("ibdata1"), "innodb".getBytes());
+                write(dataDir.resolve("auto.cnf"), "uuid".getBytes());
+                write(dataDir.resolve("mysql").resolve("user.frm"), "frm".getBytes());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    static String textOf(Path p) throws IOException {
+        return new String(readAllBytes(p), Charset.forName("UTF-8"));
+    }
+
+    static List<Path> contents(Path dir) throws IOException {
+        final List<Path> result = list();
+        try (DirectoryStream<Path> s = newDirectoryStream(dir)) {
+            for (Path p : s) {
+                result.add(p);
+            }
+        }
+        return result;
+    }
+
+    static Path newDir() {
+        return path("target", "templates-test", randomUUID().toString()).toAbsolutePath();
+    }
+}
@@ -0,0 +1,148 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.MySqlProcess.startMySqlProcess;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class DistributionCacheTest {
+
+    final Path baseDir = path("target", "distribution-cache-test", randomUUID().toString()).toAbsolutePath();
+    final Path cacheDir = baseDir.resolve("cache");
+    final String longName = "share/" + repeat("long-name-", 15) + "sql";
+
+
+    @Test
+    public void extracted_distribution_can_be_initialized_and_started() throws Exception {
+        final MySqlServer server = MySql.mySqlServerFromArchive(archive("tar.gz", "--format=gnu"), cacheDir, false);
+        final Path dataDir = baseDir.resolve("data");
+
+        assertThat(server.getVersion(), equalTo("5.5.27"));
+        server.initializeDataDirectory(dataDir);
+        final MySqlServerInstance i = server.start(dataDir, new InstanceSpec());
+        assertTrue(i.isRunning());
+        i.shutdown();
+    }
+
+    @Test
+    public void unchanged_archive_is_extracted_once() throws Exception {
+        final Path archive = archive("tar.gz", "--format=gnu");
+        final DistributionCache cache = new DistributionCache(cacheDir);
+
+        final Path dist = cache.extract(archive, false);
+        delete(dist.resolve("mysql-test").resolve("suite.test"));
+
+        assertThat(cache.extract(archive, false), equalTo(dist));
+        assertFalse(exists(dist.resolve("mysql-test").resolve("suite.test")));
+    }
+
+    @Test
+    public void minimal_distribution_leaves_out_files_not_needed_to_run() throws Exception {
+        final Path dist = new DistributionCache(cacheDir).extract(archive("tar.xz", "--format=pax"), true);
+
+        assertTrue(isExecutable(dist.resolve("bin").resolve("mysqld")));
+        assertTrue(isSymbolicLink(dist.resolve("bin").resolve("mysqld-link")));
+        assertTrue(exists(dist.resolve(longName)));
+        assertFalse(exists(dist.resolve("mysql-test")));
+        assertFalse(exists(dist.resolve("lib").resolve("libmysqlclient.a")));
+    }
+
+    @Test
+    public void entries_are_not_written_through_links_to_outside_of_the_target() throws Exception {
+        final Path source = baseDir.resolve("source");
+        final Path outside = baseDir.resolve("outside");
+        createDirectories(source.resolve("top").resolve("real"));
+        createDirectories(outside);
+        createSymbolicLink(source.resolve("top").resolve("escape"), outside);
+        write(source.resolve("top").resolve("real").resolve("x"), "x".getBytes(Charset.forName("US-ASCII")));
+
+        final Path archive = baseDir.resolve("escape.tar");
+        startMySqlProcess(new ProcessBuilder("tar", "--transform", "s,^top/real/,top/escape/,",
+                "-cf", archive.toString(), "-C", source.toString(), "top/escape", "top/real/x"))
+            .waitForSuccessfulCompletion();
+
+        try {
+            DistributionCache.extract(archive, baseDir.resolve("target"), false);
+            fail();
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("Refusing"));
+        }
+        assertFalse(exists(outside.resolve("x")));
+    }
+
+    @Test
+    public void files_needed_to_run_are_recognized() {
+        assertTrue(DistributionCache.isNeededToRun("bin/mysqld"));
+        assertTrue(DistributionCache.isNeededToRun("share/english/errmsg.sys"));
+        assertTrue(DistributionCache.isNeededToRun("lib/plugin/ha_example.so"));
+        assertFalse(DistributionCache.isNeededToRun("mysql-test/mysql-test-run.pl"));
+        assertFalse(DistributionCache.isNeededToRun("lib/libmysqld.a"));
+        assertFalse(DistributionCache.isNeededToRun("bin/mysqld-debug"));
+    }
+
+    @Test
+    public void pax_records_are_parsed() {
+        assertThat(TarArchive.parsePax("18 path=a/b/c.txt\n11 size=42\n").get("path"), equalTo("a/b/c.txt"));
+        assertThat(TarArchive.parsePax("18 path=a/b/c.txt\n11 size=42\n").get("size"), equalTo("42"));
+    }
+
+
+    /**
+     * Archives a copy of the stub distribution, with a few extra files, using the system {@code tar}.
+     */
+    Path archive(String extension, String format) throws IOException {
+        final Path source = baseDir.resolve("source");
+        final Path dist = source.resolve("mysql-5.5.27-stub");
+        final Path stub = path("src", "bench", "stub-dist").toAbsolutePath();
+
+        walkFileTree(stub, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                createDirectories(dist.resolve(stub.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                copy(file, dist.resolve(stub.relativize(file).toString()), StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        final Charset ascii = Charset.forName("US-ASCII");
+        createDirectories(dist.resolve("mysql-test"));
+        write(dist.resolve("mysql-test").resolve("suite.test"), "test".getBytes(ascii));
+        createDirectories(dist.resolve("lib"));
+        write(dist.resolve("lib").resolve("libmysqlclient.a"), "lib".getBytes(ascii));
+        createDirectories(dist.resolve(longName).getParent());
+        write(dist.resolve(longName), "long".getBytes(ascii));
+        createSymbolicLink(dist.resolve("bin").resolve("mysqld-link"), path("mysqld"));
+
+        final Path archive = baseDir.resolve("dist." + extension);
+        startMySqlProcess(new ProcessBuilder("tar", format,
+                extension.endsWith("xz") ? "-cJf" : "-czf", archive.toString(),
+                "-C", source.toString(), dist.getFileName().toString()))
+            .waitForSuccessfulCompletion();
+        return archive;
+    }
+
+    static String repeat(String s, int times) {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+}
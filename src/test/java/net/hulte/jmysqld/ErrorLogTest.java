@@ -0,0 +1,108 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.ErrorLog.parse;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import net.hulte.jmysqld.ErrorLogEvent.Severity;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class ErrorLogTest {
+
+    final Path dir = path("target", "error-log-test", randomUUID().toString());
+
+
+    @Test
+    public void severities_are_parsed_for_all_versions() {
+        assertThat(parse(dir, "130102 12:00:00 [ERROR] Can't start server").getSeverity(),
+            equalTo(Severity.ERROR));
+        assertThat(parse(dir, "2013-01-02 12:00:00 1234 [Note] InnoDB: Started").getSeverity(),
+            equalTo(Severity.NOTE));
+        assertThat(parse(dir, "2019-01-02T12:00:00.123456Z 0 [Warning] [MY-010068] [Server] x").getSeverity(),
+            equalTo(Severity.WARNING));
+        assertThat(parse(dir, "2019-01-02T12:00:00.123456Z 0 [System] [MY-010116] [Server] y").getMessage(),
+            equalTo("[MY-010116] [Server] y"));
+    }
+
+    @Test
+    public void lines_without_severity_are_kept_as_is() {
+        final ErrorLogEvent e = parse(dir, "InnoDB: Unable to lock ./ibdata1, error: 11");
+        assertThat(e.getSeverity(), equalTo(Severity.UNKNOWN));
+        assertThat(e.getMessage(), equalTo(e.getLine()));
+    }
+
+    @Test
+    public void fatal_errors_are_recorded_and_events_passed_to_the_listener() {
+        final List<ErrorLogEvent> events = list();
+        final ErrorLog log = new ErrorLog(dir.resolve("error.log"), dir, new ErrorLogListener() {
+            @Override public void onEvent(ErrorLogEvent event) {
+                events.add(event);
+            }
+        });
+
+        log.line("130102 12:00:00 [Note] Plugin 'FEDERATED' is disabled.");
+        assertThat(log.fatalEvent(), nullValue());
+
+        log.line("130102 12:00:00 [ERROR] Can't start server: Bind on TCP/IP port: Address already in use");
+        log.line("130102 12:00:00 [ERROR] Aborting");
+
+        assertThat(log.fatalEvent().getMessage(), containsString("Address already in use"));
+        assertThat(log.recentLines(), containsString("Plugin 'FEDERATED'"));
+        assertThat(events.size(), equalTo(3));
+        assertThat(events.get(0).getDataDir(), equalTo(dir));
+    }
+
+    @Test
+    public void corruption_is_only_fatal_when_reported_as_an_error() {
+        final ErrorLog log = new ErrorLog(dir.resolve("error.log"), dir, null);
+
+        log.line("2013-01-02 12:00:00 1234 [Note] InnoDB: Page 7 in space 0 is not corrupted");
+        log.line("2013-01-02 12:00:00 1234 [Note] InnoDB: Checking whether the tablespace is corrupt");
+        assertThat(log.fatalEvent(), nullValue());
+
+        log.line("2013-01-02 12:00:00 1234 [ERROR] InnoDB: Tablespace header is corrupt");
+        assertThat(log.fatalEvent().getMessage(), containsString("is corrupt"));
+    }
+
+    @Test
+    public void unknown_options_are_only_fatal_when_reported_as_an_error() {
+        final ErrorLog log = new ErrorLog(dir.resolve("error.log"), dir, null);
+
+        log.line("2019-01-02T12:00:00.123456Z 0 [Warning] [MY-010000] [Server] unknown variable 'loose-x=1'.");
+        assertThat(log.fatalEvent(), nullValue());
+
+        log.line("130102 12:00:00 [ERROR] /usr/sbin/mysqld: unknown option '--x'");
+        assertThat(log.fatalEvent().getMessage(), containsString("unknown option"));
+    }
+
+    @Test
+    public void corrupt_pages_are_fatal() {
+        final ErrorLog log = new ErrorLog(dir.resolve("error.log"), dir, null);
+
+        log.line("InnoDB: Database page corruption on disk or a failed file read of page 7.");
+        assertThat(log.fatalEvent(), notNullValue());
+    }
+
+    @Test
+    public void the_error_log_is_followed_from_its_end() throws IOException {
+        createDirectories(dir);
+        final Path file = dir.resolve("error.log");
+        write(file, "old line\n".getBytes());
+
+        final ErrorLog log = new ErrorLog(file, dir, null);
+        try (InputStream in = log.openAtEnd()) {
+            write(file, "new line\n".getBytes(), StandardOpenOption.APPEND);
+            assertThat(readText(in), equalTo("new line"));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.FixtureLoader.classify;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import net.hulte.jmysqld.FixtureLoader.Route;
+import net.hulte.jmysqld.FixtureLoader.Statement;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class FixtureLoaderTest {
+
+    @Test
+    public void use_selects_the_database() {
+        final Statement s = classify("USE `my``db`", "other");
+        assertThat(s.route, equalTo(Route.USE));
+        assertThat(s.database, equalTo("my`db"));
+    }
+
+    @Test
+    public void inserts_are_routed_by_table_and_counted() {
+        final Statement s = classify("INSERT INTO `t` VALUES (1,'a'),(2,'b')", "db");
+        assertThat(s.route, equalTo(Route.TABLE));
+        assertThat(s.database, equalTo("db"));
+        assertThat(s.table, equalTo("t"));
+        assertTrue(s.counted);
+
+        final Statement qualified = classify("replace ignore into other.t2 (a, b) values (1, 2)", "db");
+        assertThat(qualified.database, equalTo("other"));
+        assertThat(qualified.table, equalTo("t2"));
+    }
+
+    @Test
+    public void inserts_reading_other_tables_are_barriers() {
+        assertThat(classify("INSERT INTO t (a) SELECT a FROM u", "db").route, equalTo(Route.BARRIER));
+    }
+
+    @Test
+    public void table_statements_of_a_dump_are_routed_by_table() {
+        for (String sql : new String[] {
+                "DROP TABLE IF EXISTS `t`",
+                "CREATE TABLE `t` (\n  `id` int NOT NULL,\n  PRIMARY KEY (`id`)\n) ENGINE=InnoDB",
+                "LOCK TABLES `t` WRITE",
+                "/*!40000 ALTER TABLE `t` DISABLE KEYS */",
+                "TRUNCATE TABLE t"}) {
+            final Statement s = classify(sql, "db");
+            assertThat(sql, s.route, equalTo(Route.TABLE));
+            assertThat(sql, s.table, equalTo("t"));
+            assertFalse(sql, s.counted);
+        }
+        assertThat(classify("UNLOCK TABLES", "db").route, equalTo(Route.UNLOCK));
+    }
+
+    @Test
+    public void statements_affecting_several_tables_are_barriers() {
+        for (String sql : new String[] {
+                "DROP TABLE a, b",
+                "ALTER TABLE a RENAME TO b",
+                "CREATE TABLE a LIKE b",
+                "CREATE TABLE a (id int) SELECT id FROM b",
+                "LOCK TABLES a WRITE, b WRITE",
+                "CREATE DATABASE db",
+                "CREATE VIEW v AS SELECT 1"}) {
+            assertThat(sql, classify(sql, "db").route, equalTo(Route.BARRIER));
+        }
+    }
+
+    @Test
+    public void session_variables_are_replayed_while_globals_are_barriers() {
+        assertThat(classify("/*!40101 SET NAMES utf8 */", "db").route, equalTo(Route.SESSION));
+        assertThat(classify("SET @saved_cs_client = @@character_set_client", "db").route,
+            equalTo(Route.SESSION));
+        assertThat(classify("SET GLOBAL max_connections = 10", "db").route, equalTo(Route.BARRIER));
+        assertThat(classify("SET @@GLOBAL.GTID_PURGED='x'", "db").route, equalTo(Route.BARRIER));
+    }
+
+    @Test
+    public void failure_to_restore_the_globals_is_suppressed_by_the_failure_to_load() throws IOException {
+        final Path mysql = fakeClient(
+            "input=$(cat)\n"
+            + "case \"$input\" in\n"
+            + "  *'SELECT @@GLOBAL'*) printf '4194304\\t0\\n' ;;\n"
+            + "  *'SET GLOBAL'*) [ -e \"$0.set\" ] && { echo 'Lost connection' >&2; exit 1; }; touch \"$0.set\" ;;\n"
+            + "esac\n");
+
+        try {
+            new FixtureLoader(mysql, path("socket")).load(new LoadSpec().sqlFile(mysql.resolveSibling("missing.sql")));
+            fail();
+        } catch (MySqlProcessException e) {
+            assertThat(e.getMessage(), containsString("missing.sql"));
+            assertThat(e.getSuppressed().length, equalTo(1));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void csv_loads_are_stopped_when_interrupted() throws Exception {
+        final Path mysql = fakeClient(
+            "case \"$*\" in *local-infile*) echo $$ > \"$0.pid\"; exec sleep 30 ;; esac\n"
+            + "input=$(cat)\n"
+            + "case \"$input\" in *'SELECT @@GLOBAL'*) printf '4194304\\t0\\n' ;; esac\n");
+        final Path csv = mysql.resolveSibling("t.csv");
+        write(csv, "1,a\n".getBytes(Charset.forName("US-ASCII")));
+
+        final Thread loader = new Thread(new Runnable() {
+            @Override public void run() {
+                try {
+                    new FixtureLoader(mysql, path("socket")).load(new LoadSpec().csvFile(csv, "db", "t"));
+                } catch (RuntimeException e) {
+                    // interrupted
+                }
+            }
+        });
+        loader.start();
+
+        final Path pidFile = mysql.resolveSibling("mysql.pid");
+        while (!exists(pidFile) || readPid(pidFile) == null) {
+            sleep(10);
+        }
+        loader.interrupt();
+        loader.join();
+
+        final String pid = readPid(pidFile);
+        for (int n = 0; n < 500 && ResourceRegistry.isAlive(pid); n++) {
+            sleep(10);
+        }
+        assertFalse(ResourceRegistry.isAlive(pid));
+    }
+
+
+    static Path fakeClient(String script) throws IOException {
+        final Path mysql = path("target", "fixture-loader-test", randomUUID().toString(), "mysql");
+        createDirectories(mysql.getParent());
+        write(mysql, ("#!/bin/sh\n" + script).getBytes(Charset.forName("US-ASCII")));
+        mysql.toFile().setExecutable(true);
+        return mysql;
+    }
+}
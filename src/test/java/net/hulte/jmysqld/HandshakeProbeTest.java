@@ -0,0 +1,68 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.HandshakeProbe.*;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class HandshakeProbeTest {
+
+    ServerSocket server;
+
+
+    @After
+    public void closeServer() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void server_sending_handshake_is_listening() throws IOException {
+        serve(new byte[] { 5, 0, 0, 0, 10, '5', '.', '5', 0 });
+        assertTrue(isListening(server.getLocalPort(), 1000));
+    }
+
+    @Test
+    public void server_sending_error_packet_is_listening() throws IOException {
+        serve(new byte[] { 3, 0, 0, 0, (byte) 0xff, 0x10, 0x04 });
+        assertTrue(isListening(server.getLocalPort(), 1000));
+    }
+
+    @Test
+    public void server_sending_something_else_is_not_listening() throws IOException {
+        serve("HTTP/1.1 200 OK\r\n".getBytes());
+        assertFalse(isListening(server.getLocalPort(), 1000));
+    }
+
+    @Test
+    public void closed_port_is_not_listening() throws IOException {
+        final int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        assertFalse(isListening(port, 1000));
+    }
+
+
+    void serve(final byte[] greeting) throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        startNamedDaemon("fake-mysqld", new Runnable() {
+            @Override public void run() {
+                try (Socket s = server.accept()) {
+                    s.getOutputStream().write(greeting);
+                    s.getInputStream().read();
+                } catch (IOException e) {
+                    // the probe has disconnected
+                }
+            }
+        });
+    }
+}
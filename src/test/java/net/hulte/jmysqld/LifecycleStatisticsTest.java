@@ -0,0 +1,59 @@
+package net.hulte.jmysqld;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static net.hulte.jmysqld.LifecyclePhase.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import javax.management.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class LifecycleStatisticsTest {
+
+    final Path dataDir = Paths.get("data");
+    final LifecycleStatistics stats = new LifecycleStatistics();
+
+
+    @Test
+    public void durations_are_aggregated_per_phase() {
+        for (int i = 1; i <= 100; i++) {
+            stats.onPhase(dataDir, READY, MILLISECONDS.toNanos(i));
+        }
+        stats.onPhase(dataDir, INITIALIZE, MILLISECONDS.toNanos(500));
+
+        assertThat(stats.getCounts().get("READY"), equalTo(100L));
+        assertThat(stats.getCounts().containsKey("SHUTDOWN_REQUESTED"), equalTo(false));
+        assertThat(stats.getMeanMillis().get("READY"), equalTo(50.5));
+        assertThat(stats.getMaxMillis().get("READY"), equalTo(100L));
+        assertThat(stats.getMedianMillis().get("READY"), equalTo(64L));
+        assertThat(stats.getP99Millis().get("READY"), equalTo(100L));
+        assertThat(stats.getMedianMillis().get("INITIALIZE"), equalTo(500L));
+    }
+
+    @Test
+    public void statistics_are_reset() {
+        stats.onPhase(dataDir, READY, 1);
+        stats.reset();
+
+        assertTrue(stats.getCounts().isEmpty());
+    }
+
+    @Test
+    public void statistics_are_exposed_through_jmx() throws Exception {
+        final ObjectName name = stats.register("test");
+        try {
+            stats.onPhase(dataDir, PROCESS_SPAWN, MILLISECONDS.toNanos(3));
+
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertNotNull(server.getAttribute(name, "Counts"));
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class MySqlClientTest {
+
+    @Test
+    public void rows_ending_in_empty_values_keep_them() {
+        final List<String[]> rows = MySqlClient.parse("a\t\t\n\t\n");
+
+        assertThat(rows.size(), equalTo(2));
+        assertThat(rows.get(0), equalTo(new String[] {"a", "", ""}));
+        assertThat(rows.get(1), equalTo(new String[] {"", ""}));
+    }
+
+    @Test
+    public void single_empty_value_is_a_row() {
+        final List<String[]> rows = MySqlClient.parse("\n");
+
+        assertThat(rows.size(), equalTo(1));
+        assertThat(rows.get(0), equalTo(new String[] {""}));
+    }
+
+    @Test
+    public void no_output_is_no_rows() {
+        assertTrue(MySqlClient.parse("").isEmpty());
+    }
+
+    @Test
+    public void output_of_the_client_is_decoded_as_utf8() throws Exception {
+        final Path mysql = path("target", "mysql-client-test", randomUUID().toString(), "mysql");
+        createDirectories(mysql.getParent());
+        write(mysql, "#!/bin/sh\ncat > /dev/null\nprintf 'caf\\303\\251\\t\\n'\n"
+            .getBytes(Charset.forName("US-ASCII")));
+        mysql.toFile().setExecutable(true);
+
+        final List<String[]> rows = new MySqlClient(mysql, path("socket")).execute("SELECT 1");
+
+        assertThat(rows.get(0), equalTo(new String[] {"caf\u00e9", ""}));
+    }
+}
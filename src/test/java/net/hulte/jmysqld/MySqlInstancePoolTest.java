@@ -0,0 +1,238 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.junit.rules.ExpectedException.none;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+import org.junit.rules.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class MySqlInstancePoolTest {
+
+    @Rule
+    public ExpectedException thrown = none();
+
+    final FakeServer server = new FakeServer();
+    final Path baseDir = path("target", "pool-test");
+
+
+    @Test
+    public void pool_is_filled_in_the_background() {
+        try (MySqlInstancePool pool = pool(new PoolSpec().size(3))) {
+            awaitStarted(3);
+            assertThat(server.started.get(), equalTo(3));
+        }
+    }
+
+    @Test
+    public void leased_instance_is_running_and_replaced() {
+        try (MySqlInstancePool pool = pool(new PoolSpec().size(2).minIdle(2))) {
+            final MySqlServerInstance i = pool.lease();
+
+            assertTrue(i.isRunning());
+            awaitStarted(3);
+        }
+    }
+
+    @Test
+    public void released_instance_is_reset_and_leased_again() {
+        try (MySqlInstancePool pool = pool(new PoolSpec().size(1).maxTotal(1))) {
+            final FakeInstance i = (FakeInstance) pool.lease();
+            pool.release(i);
+
+            assertThat(pool.lease(), sameInstance((MySqlServerInstance) i));
+            assertThat(i.resets, equalTo(1));
+        }
+    }
+
+    @Test
+    public void released_instance_that_cannot_be_reset_is_shut_down() {
+        final FakeInstance i;
+
+        try (MySqlInstancePool pool = pool(new PoolSpec())) {
+            i = (FakeInstance) pool.lease();
+            i.failReset = true;
+            pool.release(i);
+            awaitShutDown(i);
+        }
+    }
+
+    @Test
+    public void instances_are_shut_down_when_the_pool_is_closed() {
+        final MySqlServerInstance i;
+
+        try (MySqlInstancePool pool = pool(new PoolSpec())) {
+            i = pool.lease();
+            pool.release(i);
+        }
+
+        awaitShutDown(i);
+    }
+
+    @Test
+    public void no_more_than_max_total_instances_are_started() {
+        try (MySqlInstancePool pool = pool(new PoolSpec().size(1).minIdle(1).maxTotal(2))) {
+            pool.lease();
+            pool.lease();
+            sleep(100);
+            assertThat(server.started.get(), equalTo(2));
+        }
+    }
+
+    @Test
+    public void lease_fails_if_instances_cannot_be_started() {
+        server.fail = true;
+
+        thrown.expect(MySqlProcessException.class);
+        thrown.expectMessage("Unable to start a pooled instance");
+
+        try (MySqlInstancePool pool = pool(new PoolSpec())) {
+            pool.lease();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void pooled_instances_cannot_share_a_port() {
+        new MySqlInstancePool(server, baseDir, new InstanceSpec().port(3306), new PoolSpec().size(2));
+    }
+
+
+    MySqlInstancePool pool(PoolSpec spec) {
+        return new MySqlInstancePool(server, baseDir, new InstanceSpec(), spec);
+    }
+
+    void awaitStarted(int count) {
+        for (int i = 0; i < 100 && server.started.get() < count; i++) {
+            sleep(10);
+        }
+    }
+
+    static void awaitShutDown(MySqlServerInstance i) {
+        for (int n = 0; n < 100 && i.isRunning(); n++) {
+            sleep(10);
+        }
+        assertFalse(i.isRunning());
+    }
+
+
+    static class FakeServer implements MySqlServer {
+        final AtomicInteger started = new AtomicInteger();
+        volatile boolean fail;
+
+        @Override public String getVersion() {
+            return "5.5.27";
+        }
+
+        @Override public void initializeDataDirectory(Path dataDir) {
+        }
+
+        @Override public void initializeDataDirectory(Path dataDir, InitializeOption... options) {
+        }
+
+        @Override public MySqlServerInstance start(Path dataDir, InstanceSpec spec) {
+            if (fail) {
+                throw new MySqlProcessException("Failed to start instance.");
+            }
+            started.incrementAndGet();
+            return new FakeInstance(dataDir);
+        }
+
+        @Override public List<MySqlServerInstance> startAll(Map<Path, InstanceSpec> instances) {
+            final List<MySqlServerInstance> result = list();
+            for (Map.Entry<Path, InstanceSpec> i : instances.entrySet()) {
+                result.add(start(i.getKey(), i.getValue()));
+            }
+            return result;
+        }
+
+        @Override public CompletableFuture<Void> initializeDataDirectoryAsync(Path dataDir) {
+            initializeDataDirectory(dataDir);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override public CompletableFuture<MySqlServerInstance> startAsync(Path dataDir, InstanceSpec spec) {
+            return CompletableFuture.completedFuture(start(dataDir, spec));
+        }
+
+        @Override public void snapshot(Path dataDir, Path snapshot) {
+        }
+
+        @Override public void snapshot(Path dataDir, Path snapshot, boolean compress) {
+        }
+
+        @Override public void restore(Path snapshot, Path dataDir) {
+        }
+
+        @Override public void addLifecycleListener(LifecycleListener listener) {
+        }
+    }
+
+    static class FakeInstance implements MySqlServerInstance {
+        final Path dataDir;
+        volatile boolean running = true;
+        volatile boolean checkpointed;
+        volatile boolean failReset;
+        volatile int resets;
+
+        FakeInstance(Path dataDir) {
+            this.dataDir = dataDir;
+        }
+
+        @Override public boolean isRunning() {
+            return running;
+        }
+
+        @Override public void shutdown() {
+            running = false;
+        }
+
+        @Override public CompletableFuture<Void> shutdownAsync() {
+            shutdown();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override public void checkpoint() {
+            checkpointed = true;
+        }
+
+        @Override public void resetToCheckpoint() {
+            if (failReset || !checkpointed) {
+                throw new MySqlProcessException("Failed to reset.");
+            }
+            resets++;
+        }
+
+        @Override public LoadStatistics load(LoadSpec spec) {
+            return new LoadStatistics(0, 0, 0);
+        }
+
+        @Override public List<String[]> execute(String sql) {
+            return list();
+        }
+
+        @Override public long getResidentSetSize() {
+            return 0;
+        }
+
+        @Override public Path getDataDir() {
+            return dataDir;
+        }
+
+        @Override public Path getSocket() {
+            return dataDir.resolve("mysql.sock");
+        }
+
+        @Override public Integer getPort() {
+            return null;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package net.hulte.jmysqld;
 
+import static java.nio.charset.Charset.defaultCharset;
 import static net.hulte.jmysqld.MySqlProcess.*;
 import static net.hulte.jmysqld.Utilities.*;
 import static org.junit.Assert.*;
@@ -59,6 +60,31 @@ public class MySqlProcessTest {
             .waitForSuccessfulCompletion();
     }
 
+    @Test
+    public void only_the_last_part_of_a_large_stderr_is_kept() {
+        final MySqlProcess p = startMySqlProcess(new ProcessBuilder("sh", "-c",
+                "i=0; while [ $i -lt 20000 ]; do echo error-$i >&2; i=$((i+1)); done"))
+            .waitForCompletion();
+
+        final String stdErr = p.readStdErr();
+        assertThat(stdErr.length(), equalTo("[...]".length() + MySqlProcess.tailChars - 1));
+        assertThat(stdErr, endsWith("error-19999"));
+    }
+
+    @Test
+    public void stdout_can_be_streamed_to_a_sink() {
+        final StringBuilder out = new StringBuilder();
+        startMySqlProcess(newProcessBuilder(stubMysqld()))
+            .streamStdOut(defaultCharset(), new ProcessPump.LineSink() {
+                @Override public void line(String line) {
+                    out.append(line);
+                }
+            })
+            .waitForCompletion();
+
+        assertThat(out.toString(), equalTo("some output"));
+    }
+
     @Test
     public void exit_code_can_be_retrieved() {
         assertThat(startMySqlProcess(newProcessBuilder(stubMysqld()))
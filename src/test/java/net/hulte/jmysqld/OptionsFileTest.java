@@ -0,0 +1,88 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.OptionsFile.*;
+import static net.hulte.jmysqld.Utilities.*;
+import static net.hulte.jmysqld.Version.parse;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class OptionsFileTest {
+
+    final Path dir = path("target", "options-file-test", randomUUID().toString());
+
+
+    @Test
+    public void options_are_written_after_the_included_file() throws IOException {
+        createDirectories(dir);
+        final Path file = dir.resolve("jmysqld.cnf");
+
+        final InstanceSpec spec = new InstanceSpec()
+            .bufferPoolSize(64 * 1024 * 1024)
+            .serverOption("skip_name_resolve", null);
+
+        write(file, path("my.cnf"), spec.getServerOptions());
+
+        final List<String> lines = readAllLines(file, Charset.forName("UTF-8"));
+        assertThat(lines.get(1), equalTo("!include " + path("my.cnf").toAbsolutePath()));
+        assertThat(lines.subList(3, lines.size()), equalTo(Arrays.asList(
+            "[mysqld]",
+            "innodb-buffer-pool-size=67108864",
+            "skip-name-resolve")));
+    }
+
+    @Test
+    public void sizes_may_have_a_unit_suffix() {
+        assertThat(parseSize("x", "8"), equalTo(8L));
+        assertThat(parseSize("x", "8k"), equalTo(8L * 1024));
+        assertThat(parseSize("x", "8M"), equalTo(8L * 1024 * 1024));
+        assertThat(parseSize("x", "1G"), equalTo(1024L * 1024 * 1024));
+    }
+
+    @Test
+    public void valid_options_are_accepted() {
+        final InstanceSpec spec = new InstanceSpec()
+            .bufferPoolSize(128 * 1024 * 1024)
+            .logFileSize(48 * 1024 * 1024)
+            .maxConnections(500)
+            .threadCacheSize(16)
+            .tableOpenCache(2000)
+            .serverOption("character-set-server", "utf8");
+
+        validate(spec.getServerOptions(), parse("5.7.30"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void log_file_size_is_rejected_before_5_6_8() {
+        validate(new InstanceSpec().logFileSize(48 * 1024 * 1024).getServerOptions(), parse("5.5.27"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void log_file_size_is_limited_by_the_number_of_log_files() {
+        validate(new InstanceSpec()
+            .serverOption("innodb_log_file_size", "300G")
+            .serverOption("innodb_log_files_in_group", "2")
+            .getServerOptions(), parse("5.7.30"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void out_of_range_values_are_rejected() {
+        validate(new InstanceSpec().maxConnections(0).getServerOptions(), parse("8.0.20"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void non_numeric_values_are_rejected() {
+        validate(new InstanceSpec().serverOption("max_connections", "many").getServerOptions(), parse("8.0.20"));
+    }
+}
@@ -0,0 +1,38 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class ProcessMemoryTest {
+
+    @Test
+    public void resident_set_size_is_parsed_from_the_status() {
+        assertThat(ProcessMemory.parseStatus(Arrays.asList("Name:\tmysqld", "VmRSS:\t    2048 kB",
+            "VmSwap:\t       0 kB")), equalTo(2048L * 1024));
+    }
+
+    @Test(expected=MySqlProcessException.class)
+    public void status_without_resident_set_size_is_rejected() {
+        ProcessMemory.parseStatus(Arrays.asList("Name:\tmysqld", "State:\tZ (zombie)"));
+    }
+
+    @Test
+    public void resident_set_size_is_read_for_the_pid_in_a_pid_file() throws Exception {
+        final Path pidFile = path("target", "process-memory-test", randomUUID() + ".pid");
+        createDirectories(pidFile.getParent());
+        write(pidFile, (ResourceRegistry.pid + "\n").getBytes("US-ASCII"));
+
+        assertTrue(ProcessMemory.residentSetSize(pidFile) > 1024 * 1024);
+    }
+}
@@ -0,0 +1,88 @@
+package net.hulte.jmysqld;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.hulte.jmysqld.ProcessPump.processPump;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class ProcessPumpTest {
+
+    @Test
+    public void lines_are_passed_on_in_order() throws Exception {
+        final Process p = new ProcessBuilder("sh", "-c", "for i in 1 2 3; do echo line-$i; done; printf last")
+            .start();
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch ended = new CountDownLatch(1);
+
+        processPump().drain(p, p.getInputStream(), Charset.forName("UTF-8"), new ProcessPump.LineSink() {
+            @Override public void line(String line) {
+                lines.add(line);
+            }
+        }, countDown(ended));
+
+        assertTrue(ended.await(10, SECONDS));
+        assertThat(lines, equalTo(Arrays.asList("line-1", "line-2", "line-3", "last")));
+    }
+
+    @Test
+    public void lines_longer_than_the_limit_are_passed_on_in_parts() throws Exception {
+        final int length = 2 * ProcessPump.maxLineBytes + 100;
+        final Process p = new ProcessBuilder("sh", "-c", "head -c " + length + " /dev/zero | tr '\\0' a; echo; "
+            + "head -c " + ProcessPump.maxLineBytes + " /dev/zero | tr '\\0' b; echo; echo last").start();
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch ended = new CountDownLatch(1);
+
+        processPump().drain(p, p.getInputStream(), Charset.forName("UTF-8"), new ProcessPump.LineSink() {
+            @Override public void line(String line) {
+                lines.add(line);
+            }
+        }, countDown(ended));
+
+        assertTrue(ended.await(10, SECONDS));
+        assertThat(lines.size(), equalTo(5));
+        assertThat(lines.get(0).length(), equalTo(ProcessPump.maxLineBytes));
+        assertThat(lines.get(2).length(), equalTo(100));
+        assertThat(lines.get(3).length(), equalTo(ProcessPump.maxLineBytes));
+        assertThat(lines.get(4), equalTo("last"));
+    }
+
+    @Test
+    public void callbacks_are_invoked_when_processes_exit() throws Exception {
+        final CountDownLatch exited = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            processPump().onExit(new ProcessBuilder("sh", "-c", "sleep 0.1").start(), countDown(exited));
+        }
+
+        assertThat(pumpThreads(), equalTo(1));
+        assertTrue(exited.await(10, SECONDS));
+    }
+
+
+    static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    static int pumpThreads() {
+        int result = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("process-pump")) {
+                result++;
+            }
+        }
+        return result;
+    }
+}
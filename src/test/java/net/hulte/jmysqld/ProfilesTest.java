@@ -0,0 +1,82 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.Profiles.*;
+import static net.hulte.jmysqld.Version.parse;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class ProfilesTest {
+
+    @Test
+    public void ephemeral_options_depend_on_the_server_version() {
+        final Map<String, String> old = ephemeralOptions(parse("5.5.27"));
+        final Map<String, String> recent = ephemeralOptions(parse("8.0.20"));
+
+        assertThat(old.get("innodb-flush-log-at-trx-commit"), equalTo("0"));
+        assertFalse(old.containsKey("innodb-log-file-size"));
+        assertThat(old.get("innodb-checksums"), equalTo("0"));
+
+        assertThat(recent.get("innodb-checksum-algorithm"), equalTo("none"));
+        assertTrue(recent.containsKey("skip-log-bin"));
+        assertFalse(recent.containsKey("sync-frm"));
+    }
+
+    @Test
+    public void initialize_options_depend_on_the_server_version() {
+        final Map<String, String> old = initializeOptions(parse("5.5.27"));
+        final Map<String, String> recent = initializeOptions(parse("8.0.20"));
+
+        assertTrue(old.containsKey("skip-name-resolve"));
+        assertThat(old.get("sync-frm"), equalTo("0"));
+
+        assertFalse(recent.containsKey("skip-name-resolve"));
+        assertTrue(recent.containsKey("skip-log-bin"));
+        assertThat(recent.get("innodb-doublewrite"), equalTo("0"));
+    }
+
+    @Test
+    public void memory_options_scale_with_the_budget() {
+        final Map<String, String> small = memoryOptions(parse("5.7.30"), 64L * 1024 * 1024);
+        final Map<String, String> large = memoryOptions(parse("5.7.30"), 1024L * 1024 * 1024);
+
+        assertThat(small.get("innodb-buffer-pool-size"), equalTo("32M"));
+        assertThat(small.get("max-connections"), equalTo("16"));
+        assertThat(small.get("performance-schema"), equalTo("0"));
+        assertThat(large.get("innodb-buffer-pool-size"), equalTo("512M"));
+        assertThat(large.get("max-connections"), equalTo("151"));
+    }
+
+    @Test
+    public void memory_options_depend_on_the_server_version() {
+        final Map<String, String> old = memoryOptions(parse("5.5.27"), 64L * 1024 * 1024);
+        final Map<String, String> recent = memoryOptions(parse("8.0.20"), 64L * 1024 * 1024);
+
+        assertThat(old.get("query-cache-size"), equalTo("0"));
+        assertFalse(old.containsKey("innodb-sort-buffer-size"));
+
+        assertFalse(recent.containsKey("query-cache-size"));
+        assertThat(recent.get("temptable-max-ram"), equalTo("4M"));
+        assertThat(recent.get("mysqlx"), equalTo("0"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void memory_budget_must_fit_the_server() {
+        memoryOptions(parse("5.7.30"), 16L * 1024 * 1024);
+    }
+
+    @Test
+    public void options_are_formatted_as_arguments() {
+        final Map<String, String> options = new LinkedHashMap<>();
+        options.put("skip-name-resolve", null);
+        options.put("sync-binlog", "0");
+
+        assertThat(asArguments(options), equalTo(Arrays.asList("--skip-name-resolve", "--sync-binlog=0")));
+    }
+}
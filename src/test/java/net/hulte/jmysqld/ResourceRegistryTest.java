@@ -0,0 +1,79 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.ResourceRegistry.*;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.*;
+import java.nio.file.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class ResourceRegistryTest {
+
+    final Path registry = path("target", "registry-test", randomUUID().toString()).toAbsolutePath();
+
+
+    @Before
+    public void useTestRegistry() {
+        System.setProperty("jmysqld.registry", registry.toString());
+    }
+
+    @After
+    public void resetRegistry() {
+        System.clearProperty("jmysqld.registry");
+    }
+
+    @Test
+    public void reserved_ports_are_distinct_and_registered() {
+        final int p1 = reservePort();
+        final int p2 = reservePort();
+
+        assertThat(p1, not(equalTo(p2)));
+        assertTrue(exists(registry.resolve("port-" + p1)));
+
+        releasePort(p1);
+        assertFalse(exists(registry.resolve("port-" + p1)));
+    }
+
+    @Test
+    public void sockets_are_reserved_in_the_registry_and_deleted_when_released() throws IOException {
+        final Path socket = reserveSocket();
+        assertThat(socket.getParent(), equalTo(registry));
+
+        createFile(socket);
+        releaseSocket(socket);
+        assertFalse(exists(socket));
+    }
+
+    @Test
+    public void reservations_are_transferred_to_this_process() throws IOException {
+        final Path socket = reserveSocket();
+        final String name = socket.getFileName().toString().replace(".sock", "");
+        write(registry.resolve("socket-" + name), "1".getBytes());
+
+        transfer(socket, null);
+        assertThat(new String(readAllBytes(registry.resolve("socket-" + name))), equalTo(pid));
+    }
+
+    @Test
+    public void reservations_owned_by_dead_processes_are_reclaimed() throws IOException {
+        assumeProcFileSystem();
+        createDirectories(registry);
+        write(registry.resolve("port-1"), "2147483647".getBytes());
+
+        reservePort();
+        assertFalse(exists(registry.resolve("port-1")));
+    }
+
+
+    static void assumeProcFileSystem() {
+        Assume.assumeTrue(isDirectory(path("/proc")));
+    }
+}
@@ -0,0 +1,144 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class SchemaLeaserTest {
+
+    final RecordingInstance instance = new RecordingInstance();
+
+
+    @Test
+    public void databases_are_cloned_in_the_background() {
+        try (SchemaLeaser leaser = leaser(new PoolSpec().size(2))) {
+            awaitExecuted("CREATE DATABASE", 2);
+        }
+    }
+
+    @Test
+    public void leased_database_is_cloned_from_the_template() {
+        try (SchemaLeaser leaser = leaser(new PoolSpec())) {
+            final SchemaLeaser.Lease l = leaser.lease();
+            final String sql = instance.executed("CREATE DATABASE `" + l.getDatabase() + "`").get(0);
+
+            assertThat(sql, containsString("CHARACTER SET utf8 COLLATE utf8_bin;"));
+            assertThat(sql, containsString("USE `" + l.getDatabase() + "`;\nCREATE TABLE `a` (id int);\n"
+                + "CREATE TABLE `b` (id int);\n"));
+            assertThat(sql, containsString("INSERT INTO `b` SELECT * FROM `template`.`b`;"));
+            assertThat(sql, containsString("CREATE USER '" + l.getUser() + "'@'localhost' IDENTIFIED BY '"
+                + l.getPassword() + "';"));
+            assertThat(sql, containsString("GRANT ALL ON `" + l.getDatabase() + "`.* TO '" + l.getUser()
+                + "'@'%';"));
+        }
+    }
+
+    @Test
+    public void leased_databases_are_distinct() {
+        try (SchemaLeaser leaser = leaser(new PoolSpec().size(2))) {
+            final SchemaLeaser.Lease l1 = leaser.lease();
+            final SchemaLeaser.Lease l2 = leaser.lease();
+
+            assertThat(l1.getDatabase(), not(equalTo(l2.getDatabase())));
+            assertThat(l1.getUser(), not(equalTo(l2.getUser())));
+            assertTrue(l1.getUser().length() <= 16);
+        }
+    }
+
+    @Test
+    public void released_database_is_dropped_with_its_user() {
+        try (SchemaLeaser leaser = leaser(new PoolSpec())) {
+            final SchemaLeaser.Lease l = leaser.lease();
+            l.close();
+
+            awaitExecuted("DROP DATABASE IF EXISTS `" + l.getDatabase() + "`", 1);
+            assertThat(instance.executed("DROP DATABASE IF EXISTS `" + l.getDatabase() + "`").get(0),
+                containsString("DROP USER '" + l.getUser() + "'@'localhost';"));
+        }
+    }
+
+    @Test
+    public void ready_databases_are_dropped_when_closed() {
+        try (SchemaLeaser leaser = leaser(new PoolSpec().size(2))) {
+            awaitExecuted("CREATE DATABASE", 2);
+        }
+        awaitExecuted("DROP DATABASE", 2);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void template_must_exist() {
+        new SchemaLeaser(instance, "missing", new PoolSpec());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void released_database_must_be_leased() {
+        try (SchemaLeaser leaser = leaser(new PoolSpec())) {
+            final SchemaLeaser.Lease l = leaser.lease();
+            leaser.release(l);
+            leaser.release(l);
+        }
+    }
+
+
+    SchemaLeaser leaser(PoolSpec spec) {
+        return new SchemaLeaser(instance, "template", spec);
+    }
+
+    void awaitExecuted(String prefix, int count) {
+        for (int i = 0; i < 100 && instance.executed(prefix).size() < count; i++) {
+            sleep(10);
+        }
+        assertThat(instance.executed(prefix).size(), equalTo(count));
+    }
+
+
+    static class RecordingInstance extends MySqlInstancePoolTest.FakeInstance {
+        final List<String> executed = list();
+
+        RecordingInstance() {
+            super(path("target", "schema-leaser-test"));
+        }
+
+        @Override public synchronized List<String[]> execute(String sql) {
+            if (sql.contains("information_schema.SCHEMATA")) {
+                return sql.contains("'template'") ? rows("utf8\tutf8_bin") : rows();
+            }
+            if (sql.contains("information_schema.TABLES")) {
+                return rows("a", "b");
+            }
+            if (sql.startsWith("SHOW CREATE TABLE")) {
+                return rows("a\tCREATE TABLE `a` (id int)", "b\tCREATE TABLE `b` (id int)");
+            }
+            executed.add(sql);
+            return list();
+        }
+
+        /**
+         * Returns the executed scripts having a statement starting with a prefix.
+         */
+        synchronized List<String> executed(String prefix) {
+            final List<String> result = list();
+            for (String sql : executed) {
+                if (sql.startsWith(prefix) || sql.contains("\n" + prefix)) {
+                    result.add(sql);
+                }
+            }
+            return result;
+        }
+
+        static List<String[]> rows(String... rows) {
+            final List<String[]> result = list();
+            for (String r : rows) {
+                result.add(r.split("\t"));
+            }
+            return result;
+        }
+    }
+}
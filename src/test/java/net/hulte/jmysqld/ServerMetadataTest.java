@@ -0,0 +1,90 @@
+package net.hulte.jmysqld;
+
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class ServerMetadataTest {
+
+    static final List<String> help = Arrays.asList(
+        "/opt/mysql/bin/mysqld  Ver 5.6.10 for linux-glibc2.5 on x86_64 (MySQL Community Server (GPL))",
+        "Usage: /opt/mysql/bin/mysqld [OPTIONS]",
+        "",
+        "  --bind-address=name IP address to bind to.",
+        "  --skip-grant-tables Start without grant tables.",
+        "",
+        "Variables (--variable-name=value)",
+        "and boolean options {FALSE|TRUE}                  Value (after reading options)",
+        "------------------------------------------------- ---------------------------",
+        "bind-address                                      *",
+        "init-file                                         (No default value)",
+        "innodb_buffer_pool_size                           134217728",
+        "log-error                                         ",
+        "",
+        "To see what values a running MySQL server is using, type",
+        "'mysqladmin variables' instead of 'mysqld --verbose --help'.");
+
+
+    @Test
+    public void version_and_options_are_parsed_from_the_help_output() {
+        final ServerMetadata m = parse(help);
+
+        assertThat(m.getVersion(), equalTo("5.6.10"));
+        assertThat(m.getOptions().get("bind-address"), equalTo("*"));
+        assertThat(m.getOptions().get("innodb-buffer-pool-size"), equalTo("134217728"));
+        assertTrue(m.getOptions().containsKey("init-file"));
+        assertThat(m.getOptions().get("init-file"), nullValue());
+        assertThat(m.getOptions().get("log-error"), nullValue());
+        assertTrue(m.getOptions().containsKey("skip-grant-tables"));
+        assertFalse(m.getOptions().containsKey("mysqladmin"));
+    }
+
+    @Test
+    public void negated_and_loose_options_are_supported() {
+        final ServerMetadata m = parse(help);
+
+        assertTrue(m.isSupported("innodb_buffer_pool_size"));
+        assertTrue(m.isSupported("skip-bind-address"));
+        assertTrue(m.isSupported("loose-unknown-plugin-option"));
+        assertFalse(m.isSupported("unknown-option"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupported_options_are_rejected() {
+        parse(help).requireSupported(Arrays.asList("bind-address", "unknown-option"));
+    }
+
+    @Test
+    public void metadata_is_stored_and_loaded() throws IOException {
+        final Path file = path("target", "metadata-test", randomUUID().toString(), "m.properties");
+        parse(help).store(file);
+
+        final ServerMetadata loaded = ServerMetadata.load(file);
+        assertThat(loaded.getVersion(), equalTo("5.6.10"));
+        assertThat(loaded.getOptions(), equalTo(parse(help).getOptions()));
+    }
+
+    @Test
+    public void missing_metadata_is_not_loaded() {
+        assertThat(ServerMetadata.load(path("target", "metadata-test", "missing")), nullValue());
+    }
+
+
+    static ServerMetadata parse(List<String> lines) {
+        final ServerMetadata.HelpParser parser = new ServerMetadata.HelpParser();
+        for (String line : lines) {
+            parser.line(line);
+        }
+        return parser.result();
+    }
+}
@@ -0,0 +1,117 @@
+package net.hulte.jmysqld;
+
+import static java.nio.file.Files.*;
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.MySqlProcess.startMySqlProcess;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class ShutdownCoordinatorTest {
+
+    final ShutdownCoordinator coordinator = new ShutdownCoordinator();
+    final Path dir = path("target", "shutdown-test", randomUUID().toString()).toAbsolutePath();
+
+
+    @Test
+    public void instances_are_shut_down_in_parallel() {
+        final FakeParticipant p1 = new FakeParticipant(true);
+        final FakeParticipant p2 = new FakeParticipant(true);
+        coordinator.register(p1);
+        coordinator.register(p2);
+
+        assertTrue(coordinator.shutdownAll(1000).isEmpty());
+        assertTrue(p1.exited.isDone());
+        assertTrue(p2.exited.isDone());
+    }
+
+    @Test
+    public void exited_instances_are_unregistered() {
+        final FakeParticipant p = new FakeParticipant(true);
+        coordinator.register(p);
+        p.exited.complete(null);
+
+        coordinator.shutdownAll(1000);
+        assertThat(p.shutdownRequests, equalTo(0));
+    }
+
+    @Test
+    public void instances_that_do_not_shut_down_in_time_are_terminated() throws Exception {
+        final FakeParticipant p = new FakeParticipant(false);
+        p.run("exec sleep 60");
+        coordinator.register(p);
+
+        assertTrue(coordinator.shutdownAll(100).isEmpty());
+        assertTrue(p.exited.isDone());
+    }
+
+    @Test
+    public void instances_ignoring_sigterm_are_killed() throws Exception {
+        final FakeParticipant p = new FakeParticipant(false);
+        p.run("trap '' TERM; while true; do sleep 0.1; done");
+        coordinator.register(p);
+
+        assertThat(coordinator.shutdownAll(100), equalTo(Arrays.<ShutdownCoordinator.Participant>asList(p)));
+        assertTrue(p.exited.isDone());
+        assertTrue(p.launcherDestroyed);
+    }
+
+
+    class FakeParticipant implements ShutdownCoordinator.Participant {
+        final CompletableFuture<Void> exited = new CompletableFuture<>();
+        final boolean shutsDown;
+        final Path dataDir = dir.resolve(randomUUID().toString());
+        int shutdownRequests;
+        boolean launcherDestroyed;
+
+        FakeParticipant(boolean shutsDown) {
+            this.shutsDown = shutsDown;
+        }
+
+        /**
+         * Runs a shell script as the server, which writes its pid-file before running.
+         */
+        void run(String script) throws Exception {
+            createDirectories(dataDir);
+            startMySqlProcess(new ProcessBuilder("sh", "-c",
+                    "echo $$ > " + pidFile() + ".tmp; mv " + pidFile() + ".tmp " + pidFile() + "; " + script))
+                .onExit(() -> exited.complete(null));
+            while (!exists(pidFile())) {
+                sleep(10);
+            }
+        }
+
+        @Override public Path getDataDir() {
+            return dataDir;
+        }
+
+        @Override public CompletableFuture<Void> requestShutdown() {
+            shutdownRequests++;
+            if (shutsDown) {
+                exited.complete(null);
+            }
+            return exited;
+        }
+
+        @Override public CompletableFuture<Void> exited() {
+            return exited;
+        }
+
+        @Override public Path pidFile() {
+            return dataDir.resolve("mysql.pid");
+        }
+
+        @Override public void destroyLauncher() {
+            launcherDestroyed = true;
+        }
+    }
+}
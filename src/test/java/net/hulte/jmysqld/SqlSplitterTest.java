@@ -0,0 +1,71 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class SqlSplitterTest {
+
+    @Test
+    public void statements_are_split_on_the_delimiter() throws Exception {
+        assertThat(split("select 1;\n select 2 ;select 3"),
+            equalTo(list("select 1", "select 2", "select 3")));
+    }
+
+    @Test
+    public void empty_statements_are_skipped() throws Exception {
+        assertThat(split(";;\n select 1;\n;\n"), equalTo(list("select 1")));
+    }
+
+    @Test
+    public void delimiters_within_quotes_are_ignored() throws Exception {
+        assertThat(split("insert into t values ('a;b', \"c;\\\"d\", 'it''s;');select `x;y` from t;"),
+            equalTo(list("insert into t values ('a;b', \"c;\\\"d\", 'it''s;')", "select `x;y` from t")));
+    }
+
+    @Test
+    public void line_comments_are_dropped() throws Exception {
+        assertThat(split("-- a comment; with a delimiter\nselect 1; # another;\nselect 2 --1;"),
+            equalTo(list("select 1", "select 2 --1")));
+    }
+
+    @Test
+    public void block_comments_are_kept() throws Exception {
+        assertThat(split("/*!40101 SET NAMES utf8 */;\nselect /* ; */ 1;"),
+            equalTo(list("/*!40101 SET NAMES utf8 */", "select /* ; */ 1")));
+    }
+
+    @Test
+    public void the_delimiter_is_changed_by_delimiter_commands() throws Exception {
+        assertThat(split("DELIMITER ;;\n"
+                + "CREATE TRIGGER t BEFORE INSERT ON x FOR EACH ROW BEGIN SET @a = 1; SET @b = 2; END ;;\n"
+                + "delimiter ;\n"
+                + "select 1;"),
+            equalTo(list("CREATE TRIGGER t BEFORE INSERT ON x FOR EACH ROW BEGIN SET @a = 1; SET @b = 2; END",
+                "select 1")));
+    }
+
+    @Test
+    public void statements_starting_like_the_delimiter_command_are_kept() throws Exception {
+        assertThat(split("delete from t;"), equalTo(list("delete from t")));
+    }
+
+
+    static List<String> split(String sql) throws IOException {
+        final SqlSplitter splitter = new SqlSplitter(new StringReader(sql));
+        final List<String> result = list();
+        String s;
+        while ((s = splitter.next()) != null) {
+            result.add(s);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,314 @@
+package net.hulte.jmysqld;
+
+import static java.util.UUID.randomUUID;
+import static net.hulte.jmysqld.InstanceSpec.Option.*;
+import static net.hulte.jmysqld.MySql.*;
+import static net.hulte.jmysqld.Utilities.*;
+import static org.junit.Assert.*;
+import static org.junit.rules.ExpectedException.none;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import org.junit.rules.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+/**
+ * Runs the instance lifecycle against the stub distribution used by the benchmarks, which covers the
+ * wrapper itself without requiring the MySQL binaries.
+ */
+@RunWith(JUnit4.class)
+public class StubDistributionTest {
+
+    @Rule
+    public ExpectedException thrown = none();
+
+    final MySqlServer server = mySqlServerFromBinaryDistribution(path("src", "bench", "stub-dist"));
+
+
+    @Test
+    public void the_server_version_is_obtained() {
+        assertThat(server.getVersion(), equalTo("5.5.27"));
+    }
+
+    @Test
+    public void metadata_is_read_from_the_cache_directory() throws Exception {
+        final Path cacheDir = newDataDir();
+        mySqlServerFromBinaryDistribution(path("src", "bench", "stub-dist"), cacheDir).getVersion();
+
+        final Path metadataDir = cacheDir.resolve("metadata");
+        final Path file;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(metadataDir)) {
+            file = files.iterator().next();
+        }
+        new ServerMetadata("9.9.9", new HashMap<String, String>()).store(file);
+
+        assertThat(mySqlServerFromBinaryDistribution(path("src", "bench", "stub-dist"), cacheDir).getVersion(),
+            equalTo("9.9.9"));
+    }
+
+    @Test
+    public void data_directory_is_installed_by_mysqld_as_of_5_7_6() throws Exception {
+        final Path cacheDir = newDataDir();
+        mySqlServerFromBinaryDistribution(path("src", "bench", "stub-dist"), cacheDir).getVersion();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(cacheDir.resolve("metadata"))) {
+            new ServerMetadata("5.7.9", new HashMap<String, String>()).store(files.iterator().next());
+        }
+
+        final Path oldDataDir = newPreparedDataDir();
+        final Path dataDir = newDataDir();
+        mySqlServerFromBinaryDistribution(path("src", "bench", "stub-dist"), cacheDir)
+            .initializeDataDirectory(dataDir, InitializeOption.SKIP_OPTIONAL_STEPS);
+
+        assertThat(installer(oldDataDir), equalTo("mysql_install_db"));
+        assertThat(installer(dataDir), equalTo("mysqld"));
+    }
+
+    @Test
+    public void templates_installed_with_other_options_are_kept_apart() throws Exception {
+        final Path cacheDir = newDataDir();
+        final MySqlServer cached = mySqlServerFromBinaryDistribution(path("src", "bench", "stub-dist"), cacheDir);
+
+        cached.initializeDataDirectory(newDataDir());
+        cached.initializeDataDirectory(newDataDir(), InitializeOption.SKIP_OPTIONAL_STEPS);
+        cached.initializeDataDirectory(newDataDir());
+
+        try (DirectoryStream<Path> templates = Files.newDirectoryStream(cacheDir.resolve("templates"))) {
+            int count = 0;
+            for (Path t : templates) {
+                count++;
+            }
+            assertThat(count, equalTo(2));
+        }
+    }
+
+    @Test
+    public void unsupported_server_options_are_rejected() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("unknown-option");
+
+        server.start(newPreparedDataDir(), new InstanceSpec().serverOption("unknown-option", "1"));
+    }
+
+    @Test
+    public void instance_can_be_started_and_stopped() {
+        final MySqlServerInstance i = server.start(newPreparedDataDir(), new InstanceSpec());
+
+        assertTrue(i.isRunning());
+        i.shutdown();
+        assertFalse(i.isRunning());
+    }
+
+    @Test
+    public void memory_budget_is_written_to_the_option_file() throws Exception {
+        final Path dataDir = newPreparedDataDir();
+        final MySqlServerInstance i = server.start(dataDir, new InstanceSpec()
+            .memoryBudget(64L * 1024 * 1024)
+            .maxConnections(20));
+
+        final List<String> options = Files.readAllLines(dataDir.resolve("jmysqld.cnf"));
+        assertThat(options, hasItem("innodb-buffer-pool-size=32M"));
+        assertThat(options, hasItem("max-connections=20"));
+        assertThat(i.getResidentSetSize(), not(equalTo(0L)));
+        i.shutdown();
+    }
+
+    @Test
+    public void instance_launched_without_mysqld_safe_can_be_started_and_stopped() {
+        final MySqlServerInstance i = server.start(newPreparedDataDir(), new InstanceSpec().option(DIRECT_LAUNCH));
+
+        assertTrue(i.isRunning());
+        i.shutdown();
+        assertFalse(i.isRunning());
+    }
+
+    @Test
+    public void lifecycle_phases_are_reported() {
+        final LifecycleStatistics stats = new LifecycleStatistics();
+        server.addLifecycleListener(stats);
+
+        server.start(newPreparedDataDir(), new InstanceSpec()).shutdown();
+
+        // the exit is reported by the reaper, possibly after shutdown() has returned
+        for (int i = 0; i < 100 && !stats.getCounts().containsKey("PROCESS_EXITED"); i++) {
+            sleep(10);
+        }
+        assertThat(stats.getCounts().keySet().size(), equalTo(LifecyclePhase.values().length));
+    }
+
+    @Test
+    public void fatal_errors_are_reported_from_the_error_log() {
+        thrown.expect(MySqlProcessException.class);
+        thrown.expectMessage("Failed to start instance: Fatal error");
+
+        server.start(newDataDir(), new InstanceSpec().option(DIRECT_LAUNCH));
+    }
+
+    @Test
+    public void instances_are_initialized_started_and_stopped_asynchronously() {
+        final Path dataDir = newDataDir();
+
+        final CompletableFuture<MySqlServerInstance> started = server.initializeDataDirectoryAsync(dataDir)
+            .thenCompose(v -> server.startAsync(dataDir, new InstanceSpec()));
+        final MySqlServerInstance i = started.join();
+
+        assertTrue(i.isRunning());
+        i.shutdownAsync().join();
+        assertFalse(i.isRunning());
+    }
+
+    @Test(timeout = 20000)
+    public void blocking_calls_can_be_chained_onto_an_asynchronous_start() {
+        final MySqlServerInstance i = server.startAsync(newPreparedDataDir(), new InstanceSpec())
+            .thenApply(started -> {
+                started.shutdown();
+                return started;
+            })
+            .join();
+
+        assertFalse(i.isRunning());
+    }
+
+    @Test
+    public void failing_asynchronous_start_completes_the_future_exceptionally() throws Exception {
+        final CompletableFuture<MySqlServerInstance> started = server.startAsync(newDataDir(),
+            new InstanceSpec().option(DIRECT_LAUNCH));
+
+        try {
+            started.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(MySqlProcessException.class));
+        }
+    }
+
+    @Test
+    public void several_instances_are_started_together() {
+        final Map<Path, InstanceSpec> specs = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            specs.put(newPreparedDataDir(), new InstanceSpec().option(DIRECT_LAUNCH));
+        }
+
+        final List<MySqlServerInstance> instances = server.startAll(specs);
+
+        assertThat(instances.size(), equalTo(3));
+        final Iterator<Path> dataDirs = specs.keySet().iterator();
+        for (MySqlServerInstance i : instances) {
+            assertThat(i.getDataDir(), equalTo(dataDirs.next()));
+            assertTrue(i.isRunning());
+            i.shutdown();
+        }
+    }
+
+    @Test
+    public void started_instances_are_shut_down_if_another_fails_to_start() {
+        final Path dataDir = newPreparedDataDir();
+        final Map<Path, InstanceSpec> specs = new LinkedHashMap<>();
+        specs.put(dataDir, new InstanceSpec().option(DIRECT_LAUNCH));
+        specs.put(newDataDir(), new InstanceSpec().option(DIRECT_LAUNCH));
+
+        try {
+            server.startAll(specs);
+            fail();
+        } catch (MySqlProcessException e) {
+            assertThat(e.getMessage(), containsString("Failed to start"));
+        }
+
+        for (int n = 0; n < 500 && Files.exists(dataDir.resolve("mysql.pid")); n++) {
+            sleep(10);
+        }
+        assertFalse(Files.exists(dataDir.resolve("mysql.pid")));
+    }
+
+    @Test
+    public void disposable_instances_are_killed_and_their_data_directory_reclaimed() {
+        final Path dataDir = newPreparedDataDir();
+        final MySqlServerInstance i = server.start(dataDir, new InstanceSpec().option(DISPOSABLE));
+
+        i.shutdown();
+        assertFalse(i.isRunning());
+
+        for (int n = 0; n < 200 && Files.exists(dataDir); n++) {
+            sleep(10);
+        }
+        assertFalse(Files.exists(dataDir));
+        assertFalse(Files.exists(i.getSocket()));
+    }
+
+    @Test
+    public void shared_instance_is_attached_to_and_shut_down_once_idle() {
+        final Path dataDir = newPreparedDataDir();
+        final InstanceSpec spec = new InstanceSpec().option(SHARED).sharedIdleTimeout(100);
+        final MySqlServerInstance i1 = server.start(dataDir, spec);
+        final MySqlServerInstance i2 = server.start(dataDir, spec);
+
+        assertThat(i2.getSocket(), equalTo(i1.getSocket()));
+        i1.shutdown();
+        assertFalse(i1.isRunning());
+        assertTrue(i2.isRunning());
+        i2.shutdown();
+
+        for (int n = 0; n < 1000 && Files.exists(i1.getSocket()); n++) {
+            sleep(10);
+        }
+        assertFalse(Files.exists(i1.getSocket()));
+    }
+
+    @Test(timeout = 20000)
+    public void shared_instance_is_attached_to_while_another_is_starting() {
+        final CountDownLatch starting = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CompletableFuture<SharedInstances.State> slow = CompletableFuture.supplyAsync(() ->
+            SharedInstances.attach(newDataDir(), "slow", 100, () -> {
+                starting.countDown();
+                await(proceed);
+                throw new MySqlProcessException("Failed to start.");
+            }));
+        await(starting);
+
+        final MySqlServerInstance i = server.start(newPreparedDataDir(),
+            new InstanceSpec().option(SHARED).sharedIdleTimeout(100));
+        assertTrue(i.isRunning());
+        i.shutdown();
+
+        proceed.countDown();
+        try {
+            slow.join();
+            fail();
+        } catch (CompletionException e) {
+            assertThat(e.getCause(), instanceOf(MySqlProcessException.class));
+        }
+    }
+
+    @Test
+    public void shared_instance_cannot_be_attached_to_with_another_specification() {
+        final Path dataDir = newPreparedDataDir();
+        final MySqlServerInstance i = server.start(dataDir, new InstanceSpec().option(SHARED).sharedIdleTimeout(100));
+
+        try {
+            thrown.expect(IllegalStateException.class);
+            server.start(dataDir, new InstanceSpec().option(SHARED).option(DIRECT_LAUNCH));
+        } finally {
+            i.shutdown();
+        }
+    }
+
+
+    Path newPreparedDataDir() {
+        final Path result = newDataDir();
+        server.initializeDataDirectory(result);
+        return result;
+    }
+
+    static String installer(Path dataDir) throws Exception {
+        return new String(Files.readAllBytes(dataDir.resolve("installed-by")), "US-ASCII").trim();
+    }
+
+    static Path newDataDir() {
+        return path("target", "stub-dist-test", randomUUID().toString()).toAbsolutePath();
+    }
+}
@@ -0,0 +1,41 @@
+package net.hulte.jmysqld;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class TailBufferTest {
+
+    @Test
+    public void all_lines_are_kept_while_within_capacity() {
+        final TailBuffer tail = new TailBuffer(16);
+        tail.line("abc");
+        tail.line("def");
+
+        assertThat(tail.toString(), equalTo("abc\ndef\n"));
+        assertThat(tail.total(), equalTo(8L));
+    }
+
+    @Test
+    public void only_the_last_characters_are_kept() {
+        final TailBuffer tail = new TailBuffer(8);
+        tail.line("first line");
+        tail.line("abc");
+        tail.line("def");
+
+        assertThat(tail.toString(), equalTo("[...]abc\ndef\n"));
+        assertThat(tail.total(), equalTo(19L));
+    }
+
+    @Test
+    public void lines_longer_than_the_capacity_are_truncated() {
+        final TailBuffer tail = new TailBuffer(4);
+        tail.line("0123456789");
+
+        assertThat(tail.toString(), equalTo("[...]789\n"));
+    }
+}
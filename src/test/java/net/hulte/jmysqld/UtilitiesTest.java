@@ -5,6 +5,8 @@ import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
 
 import java.io.*;
+import java.nio.file.*;
+import java.util.UUID;
 import java.util.regex.*;
 
 import org.junit.*;
@@ -32,5 +34,16 @@ public class UtilitiesTest {
         assertThat(firstMatchOrNull(number, "abc"), equalTo(null));
         assertThat(firstMatchOrNull(number, "ab4c"), equalTo("4"));
     }
-}
 
+    @Test
+    public void pid_is_read_from_pid_file() throws IOException {
+        final Path pidFile = path("target", "utilities-test", UUID.randomUUID().toString(), "mysql.pid");
+        Files.createDirectories(pidFile.getParent());
+
+        Files.write(pidFile, "1234\n".getBytes());
+        assertThat(readPid(pidFile), equalTo("1234"));
+
+        Files.write(pidFile, "12x".getBytes());
+        assertThat(readPid(pidFile), equalTo(null));
+    }
+}
@@ -0,0 +1,33 @@
+package net.hulte.jmysqld;
+
+import static net.hulte.jmysqld.Version.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+@RunWith(JUnit4.class)
+public class VersionTest {
+
+    @Test
+    public void version_is_parsed_ignoring_any_suffix() {
+        assertThat(parse("5.5.27").toString(), equalTo("5.5.27"));
+        assertThat(parse("5.7.30-log").toString(), equalTo("5.7.30"));
+        assertThat(parse("8.0").toString(), equalTo("8.0.0"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void version_without_numbers_cannot_be_parsed() {
+        parse("unknown");
+    }
+
+    @Test
+    public void versions_are_compared_numerically() {
+        assertTrue(parse("5.5.27").isAtLeast(5, 5, 9));
+        assertTrue(parse("5.10.0").isAtLeast(5, 9, 99));
+        assertFalse(parse("5.6.7").isAtLeast(5, 6, 8));
+        assertThat(parse("8.0.11"), equalTo(parse("8.0.11-debug")));
+    }
+}